@@ -0,0 +1,64 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures allocated bytes with the thread allocation counters of the JVM - the same counters the JMH GC profiler uses.
+ *
+ * The counters are an extension of HotSpot (<code>com.sun.management.ThreadMXBean</code>).
+ * On JVMs that do not support them {@link #isSupported()} returns <code>false</code> and all methods return 0.
+ */
+public class AllocationCounter {
+
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+
+	private static com.sun.management.ThreadMXBean threadMXBean() {
+		java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+			if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+				return sunThreadMXBean;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether the JVM supports measuring allocated bytes.
+	 *
+	 * @return <code>true</code> if supported
+	 */
+	public static boolean isSupported() {
+		return THREAD_MX_BEAN != null;
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread so far.
+	 *
+	 * @return the allocated bytes, 0 if not supported
+	 */
+	public static long currentThreadAllocatedBytes() {
+		if (THREAD_MX_BEAN == null) {
+			return 0;
+		}
+		return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the bytes allocated by all live threads so far - parallel streams allocate in the ForkJoinPool workers.
+	 *
+	 * Threads that terminated in the meantime are no longer counted, so only compare values while the worker threads are alive.
+	 *
+	 * @return the allocated bytes, 0 if not supported
+	 */
+	public static long allThreadsAllocatedBytes() {
+		if (THREAD_MX_BEAN == null) {
+			return 0;
+		}
+		long sum = 0;
+		for (long allocated : THREAD_MX_BEAN.getThreadAllocatedBytes(THREAD_MX_BEAN.getAllThreadIds())) {
+			if (allocated > 0) {
+				sum += allocated;
+			}
+		}
+		return sum;
+	}
+}
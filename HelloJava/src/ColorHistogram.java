@@ -0,0 +1,481 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Histogram and statistics of the colors of images, binned directly in the HSV or CIELAB {@link ColorSpace}.
+ *
+ * The pixels are converted with {@link ColorSpace} into reused arrays and counted into primitive arrays.
+ * Images are processed in parallel by rows - every thread accumulates into its own {@link ColorHistogram}, merged at the end.
+ * Histograms with up to {@value #DENSE_BIN_LIMIT} bins are dense <code>long[]</code>,
+ * finer histograms (for example 100x100x100 Lab bins) are sparse and only store the bins that contain colors.
+ *
+ * <pre>
+ * ColorHistogram histogram = ColorHistogram.of(image, ColorHistogram.Space.CIELAB, 10, 16, 16);
+ * System.out.println(histogram.getMean(0) + " " + histogram.getVariance(0));
+ * System.out.println(histogram.getDominantColors(5));
+ * </pre>
+ */
+public class ColorHistogram {
+
+	public static final int DENSE_BIN_LIMIT = 1 << 16;
+
+	/**
+	 * The color space in which the colors are binned, with the value range of the three channels.
+	 */
+	public enum Space {
+		/** hue, saturation, value - all in the range 0.0 - 1.0 */
+		HSV(new double[] { 0, 0, 0 }, new double[] { 1, 1, 1 }),
+		/** L in the range 0.0 - 100.0, a and b in the range -128.0 - 128.0 */
+		CIELAB(new double[] { 0, -128, -128 }, new double[] { 100, 128, 128 });
+
+		private final double[] min;
+		private final double[] max;
+
+		private Space(double[] min, double[] max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		public double getMin(int channel) {
+			return min[channel];
+		}
+
+		public double getMax(int channel) {
+			return max[channel];
+		}
+
+		private void convertFromRGB(double[] rgb, double[] color) {
+			switch (this) {
+				case HSV:
+					ColorSpace.convertRGBtoHSV(rgb, color);
+					break;
+				case CIELAB:
+					ColorSpace.convertRGBtoCIELAB(rgb, color);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown space: " + this);
+			}
+		}
+	}
+
+	private final Space space;
+	private final int[] binCounts;
+	private final int totalBinCount;
+
+	private final long[] denseCounts;
+	private final SparseCounts sparseCounts;
+
+	private long count;
+	private final double[] sums = new double[3];
+	private final double[] sumSquares = new double[3];
+
+	private final double[] rgb = new double[3];
+	private final double[] color = new double[3];
+
+	/**
+	 * Creates an empty {@link ColorHistogram}.
+	 *
+	 * @param space the color space to bin in
+	 * @param bins0 the number of bins of the first channel (hue or L)
+	 * @param bins1 the number of bins of the second channel (saturation or a)
+	 * @param bins2 the number of bins of the third channel (value or b)
+	 */
+	public ColorHistogram(Space space, int bins0, int bins1, int bins2) {
+		if (bins0 <= 0 || bins1 <= 0 || bins2 <= 0) {
+			throw new IllegalArgumentException("bins must be > 0: " + bins0 + ", " + bins1 + ", " + bins2);
+		}
+		long binCount = (long) bins0 * bins1 * bins2;
+		if (binCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many bins: " + binCount);
+		}
+
+		this.space = space;
+		this.binCounts = new int[] { bins0, bins1, bins2 };
+		this.totalBinCount = (int) binCount;
+		if (totalBinCount <= DENSE_BIN_LIMIT) {
+			denseCounts = new long[totalBinCount];
+			sparseCounts = null;
+		} else {
+			denseCounts = null;
+			sparseCounts = new SparseCounts();
+		}
+	}
+
+	/**
+	 * Computes the histogram of an image, processing the rows in parallel.
+	 *
+	 * @param image the image
+	 * @param space the color space to bin in
+	 * @param bins0 the number of bins of the first channel
+	 * @param bins1 the number of bins of the second channel
+	 * @param bins2 the number of bins of the third channel
+	 * @return the {@link ColorHistogram}
+	 */
+	public static ColorHistogram of(BufferedImage image, Space space, int bins0, int bins1, int bins2) {
+		int width = image.getWidth();
+		return IntStream.range(0, image.getHeight())
+			.parallel()
+			.collect(
+					() -> new ColorHistogram(space, bins0, bins1, bins2), // one histogram per thread
+					(histogram, y) -> histogram.addRow(image, y, width),
+					ColorHistogram::merge);
+	}
+
+	/**
+	 * Computes one histogram per image, processing the images concurrently.
+	 *
+	 * @param images the images
+	 * @param space the color space to bin in
+	 * @param bins0 the number of bins of the first channel
+	 * @param bins1 the number of bins of the second channel
+	 * @param bins2 the number of bins of the third channel
+	 * @return the list of {@link ColorHistogram}s in the same order as the images
+	 */
+	public static List<ColorHistogram> ofEach(Collection<BufferedImage> images, Space space, int bins0, int bins1, int bins2) {
+		return images.parallelStream()
+			.map(image -> {
+				ColorHistogram histogram = new ColorHistogram(space, bins0, bins1, bins2);
+				histogram.addImage(image);
+				return histogram;
+			})
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * Computes the combined histogram of all images, processing the images concurrently.
+	 *
+	 * @param images the images
+	 * @param space the color space to bin in
+	 * @param bins0 the number of bins of the first channel
+	 * @param bins1 the number of bins of the second channel
+	 * @param bins2 the number of bins of the third channel
+	 * @return the combined {@link ColorHistogram}
+	 */
+	public static ColorHistogram ofAll(Collection<BufferedImage> images, Space space, int bins0, int bins1, int bins2) {
+		return images.parallelStream()
+			.collect(
+					() -> new ColorHistogram(space, bins0, bins1, bins2),
+					ColorHistogram::addImage,
+					ColorHistogram::merge);
+	}
+
+	/**
+	 * Adds all pixels of an image (sequentially).
+	 *
+	 * @param image the image
+	 */
+	public void addImage(BufferedImage image) {
+		int width = image.getWidth();
+		for (int y = 0; y < image.getHeight(); y++) {
+			addRow(image, y, width);
+		}
+	}
+
+	private void addRow(BufferedImage image, int y, int width) {
+		int[] row = image.getRGB(0, y, width, 1, null, 0, width);
+		for (int x = 0; x < width; x++) {
+			addRGB(row[x]);
+		}
+	}
+
+	/**
+	 * Adds a pixel.
+	 *
+	 * @param argb the pixel in the packed (A)RGB format of {@link BufferedImage#getRGB(int, int)}
+	 */
+	public void addRGB(int argb) {
+		add(((argb >> 16) & 0xff) / 255.0, ((argb >> 8) & 0xff) / 255.0, (argb & 0xff) / 255.0);
+	}
+
+	/**
+	 * Adds a color.
+	 *
+	 * @param r the red value (0.0 - 1.0)
+	 * @param g the green value (0.0 - 1.0)
+	 * @param b the blue value (0.0 - 1.0)
+	 */
+	public void add(double r, double g, double b) {
+		rgb[0] = r;
+		rgb[1] = g;
+		rgb[2] = b;
+		space.convertFromRGB(rgb, color);
+
+		int bin = 0;
+		for (int channel = 0; channel < 3; channel++) {
+			double value = color[channel];
+			sums[channel] += value;
+			sumSquares[channel] += value * value;
+			bin = bin * binCounts[channel] + binIndex(channel, value);
+		}
+		count++;
+
+		if (denseCounts != null) {
+			denseCounts[bin]++;
+		} else {
+			sparseCounts.add(bin, 1);
+		}
+	}
+
+	/**
+	 * Merges another histogram with the same space and bins into this one.
+	 *
+	 * @param other the other histogram
+	 * @return this histogram
+	 */
+	public ColorHistogram merge(ColorHistogram other) {
+		if (other.space != space || !Arrays.equals(other.binCounts, binCounts)) {
+			throw new IllegalArgumentException("Incompatible histograms: " + space + Arrays.toString(binCounts) + " and " + other.space + Arrays.toString(other.binCounts));
+		}
+
+		if (denseCounts != null) {
+			for (int i = 0; i < denseCounts.length; i++) {
+				denseCounts[i] += other.denseCounts[i];
+			}
+		} else {
+			other.sparseCounts.forEach((bin, binCount) -> sparseCounts.add(bin, binCount));
+		}
+
+		count += other.count;
+		for (int channel = 0; channel < 3; channel++) {
+			sums[channel] += other.sums[channel];
+			sumSquares[channel] += other.sumSquares[channel];
+		}
+		return this;
+	}
+
+	public Space getSpace() {
+		return space;
+	}
+
+	public int getBinCount(int channel) {
+		return binCounts[channel];
+	}
+
+	/**
+	 * Returns the number of added colors.
+	 *
+	 * @return the number of colors
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of colors in a bin.
+	 *
+	 * @param bin0 the bin index of the first channel
+	 * @param bin1 the bin index of the second channel
+	 * @param bin2 the bin index of the third channel
+	 * @return the number of colors
+	 */
+	public long getCount(int bin0, int bin1, int bin2) {
+		int bin = (bin0 * binCounts[1] + bin1) * binCounts[2] + bin2;
+		return denseCounts != null ? denseCounts[bin] : sparseCounts.get(bin);
+	}
+
+	/**
+	 * Returns the histogram of a single channel (for example the hue histogram).
+	 *
+	 * @param channel the channel (0 - 2)
+	 * @return the counts of the bins of this channel
+	 */
+	public long[] getChannelHistogram(int channel) {
+		long[] result = new long[binCounts[channel]];
+		forEachBin((bin, binCount) -> result[channelBinIndex(bin, channel)] += binCount);
+		return result;
+	}
+
+	/**
+	 * Returns the mean of a channel.
+	 *
+	 * Note: the hue is circular - use {@link #getChannelHistogram(int)} instead of the mean for the hue.
+	 *
+	 * @param channel the channel (0 - 2)
+	 * @return the mean
+	 */
+	public double getMean(int channel) {
+		return count == 0 ? 0 : sums[channel] / count;
+	}
+
+	/**
+	 * Returns the variance of a channel.
+	 *
+	 * @param channel the channel (0 - 2)
+	 * @return the (population) variance
+	 */
+	public double getVariance(int channel) {
+		if (count == 0) {
+			return 0;
+		}
+		double mean = sums[channel] / count;
+		return Math.max(0, sumSquares[channel] / count - mean * mean);
+	}
+
+	/**
+	 * Returns the most frequent bins.
+	 *
+	 * @param maxCount the maximum number of bins to return
+	 * @return the bins sorted by descending count
+	 */
+	public List<Bin> getDominantColors(int maxCount) {
+		List<Bin> bins = new ArrayList<>();
+		forEachBin((bin, binCount) -> {
+			if (binCount > 0) {
+				bins.add(new Bin(
+						binCenter(0, channelBinIndex(bin, 0)),
+						binCenter(1, channelBinIndex(bin, 1)),
+						binCenter(2, channelBinIndex(bin, 2)),
+						binCount,
+						(double) binCount / count));
+			}
+		});
+		bins.sort((bin1, bin2) -> Long.compare(bin2.count, bin1.count));
+		return bins.size() > maxCount ? new ArrayList<>(bins.subList(0, maxCount)) : bins;
+	}
+
+	private void forEachBin(BinConsumer consumer) {
+		if (denseCounts != null) {
+			for (int bin = 0; bin < denseCounts.length; bin++) {
+				consumer.accept(bin, denseCounts[bin]);
+			}
+		} else {
+			sparseCounts.forEach(consumer);
+		}
+	}
+
+	private int binIndex(int channel, double value) {
+		double min = space.min[channel];
+		double max = space.max[channel];
+		int index = (int) ((value - min) / (max - min) * binCounts[channel]);
+		if (index < 0) {
+			return 0;
+		}
+		if (index >= binCounts[channel]) {
+			return binCounts[channel] - 1;
+		}
+		return index;
+	}
+
+	private int channelBinIndex(int bin, int channel) {
+		switch (channel) {
+			case 0:
+				return bin / (binCounts[1] * binCounts[2]);
+			case 1:
+				return bin / binCounts[2] % binCounts[1];
+			default:
+				return bin % binCounts[2];
+		}
+	}
+
+	private double binCenter(int channel, int index) {
+		double min = space.min[channel];
+		double max = space.max[channel];
+		return min + (index + 0.5) * (max - min) / binCounts[channel];
+	}
+
+	@Override
+	public String toString() {
+		return "ColorHistogram [space=" + space + ", bins=" + Arrays.toString(binCounts) + ", count=" + count + "]";
+	}
+
+	/**
+	 * A bin of a {@link ColorHistogram} - the center color of the bin in the color space of the histogram.
+	 */
+	public static class Bin {
+		public final double value0;
+		public final double value1;
+		public final double value2;
+		public final long count;
+		public final double fraction;
+
+		public Bin(double value0, double value1, double value2, long count, double fraction) {
+			this.value0 = value0;
+			this.value1 = value1;
+			this.value2 = value2;
+			this.count = count;
+			this.fraction = fraction;
+		}
+
+		@Override
+		public String toString() {
+			return "Bin [" + value0 + ", " + value1 + ", " + value2 + ", count=" + count + ", fraction=" + fraction + "]";
+		}
+	}
+
+	private interface BinConsumer {
+		void accept(int bin, long count);
+	}
+
+	/**
+	 * Open addressing hash map from bin index to count - only stores the bins that contain colors.
+	 */
+	private static class SparseCounts {
+		private static final int EMPTY = -1;
+
+		private int[] bins = newBins(1024);
+		private long[] counts = new long[1024];
+		private int size;
+
+		public void add(int bin, long count) {
+			int slot = slot(bins, bin);
+			if (bins[slot] == EMPTY) {
+				bins[slot] = bin;
+				size++;
+				if (size * 2 > bins.length) {
+					counts[slot] = count;
+					grow();
+					return;
+				}
+			}
+			counts[slot] += count;
+		}
+
+		public long get(int bin) {
+			int slot = slot(bins, bin);
+			return bins[slot] == EMPTY ? 0 : counts[slot];
+		}
+
+		public void forEach(BinConsumer consumer) {
+			for (int slot = 0; slot < bins.length; slot++) {
+				if (bins[slot] != EMPTY) {
+					consumer.accept(bins[slot], counts[slot]);
+				}
+			}
+		}
+
+		private void grow() {
+			int[] oldBins = bins;
+			long[] oldCounts = counts;
+			bins = newBins(oldBins.length * 2);
+			counts = new long[oldBins.length * 2];
+			for (int oldSlot = 0; oldSlot < oldBins.length; oldSlot++) {
+				if (oldBins[oldSlot] != EMPTY) {
+					int slot = slot(bins, oldBins[oldSlot]);
+					bins[slot] = oldBins[oldSlot];
+					counts[slot] = oldCounts[oldSlot];
+				}
+			}
+		}
+
+		private static int slot(int[] bins, int bin) {
+			int mask = bins.length - 1;
+			int hash = bin * 0x9E3779B9;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (bins[slot] != EMPTY && bins[slot] != bin) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private static int[] newBins(int capacity) {
+			int[] bins = new int[capacity];
+			Arrays.fill(bins, EMPTY);
+			return bins;
+		}
+	}
+}
@@ -11,6 +11,7 @@ public class ColorSpaceExample {
 
 	public static void main(String[] args) {
 		testInterpolate();
+		testHistogram();
 	}
 
 	private static void testInterpolate() {
@@ -23,6 +24,26 @@ public class ColorSpaceExample {
 		drawScales("rnd_rnd", new Color((float) Math.random(), (float) Math.random(), (float) Math.random()), new Color((float) Math.random(), (float) Math.random(), (float) Math.random()));
 	}
 
+	private static void testHistogram() {
+		BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+		drawScale(image.getGraphics(), 400, 100, Color.RED, Color.BLUE, ColorSpace::convertRGBtoCIELAB, ColorSpace::convertCIELABtoRGB);
+		Graphics graphics = image.getGraphics();
+		graphics.setColor(Color.ORANGE);
+		graphics.fillRect(0, 100, 400, 200);
+
+		// hue histogram - bins directly in HSV, rows are processed in parallel
+		ColorHistogram hsvHistogram = ColorHistogram.of(image, ColorHistogram.Space.HSV, 12, 4, 4);
+		System.out.println("Hue:  " + Arrays.toString(hsvHistogram.getChannelHistogram(0)));
+
+		// Lab statistics and dominant colors - 100x100x100 bins are stored sparse
+		ColorHistogram labHistogram = ColorHistogram.of(image, ColorHistogram.Space.CIELAB, 100, 100, 100);
+		System.out.println("L:    mean=" + labHistogram.getMean(0) + " variance=" + labHistogram.getVariance(0));
+		System.out.println("Dominant: " + labHistogram.getDominantColors(3));
+
+		// many images concurrently
+		System.out.println(ColorHistogram.ofAll(Arrays.asList(image, image, image), ColorHistogram.Space.HSV, 12, 4, 4));
+	}
+
 	private static void drawScales(String name, Color startColor, Color endColor) {
 		drawScale(name + "_rgb", startColor, endColor, ColorSpace::convertIdentity, ColorSpace::convertIdentity);
 		drawScale(name + "_hsv", startColor, endColor, ColorSpace::convertRGBtoHSV, ColorSpace::convertHSVtoRGB);
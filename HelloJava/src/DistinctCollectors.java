@@ -0,0 +1,513 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+
+/**
+ * Memory bounded alternatives to <code>distinct()</code>.
+ *
+ * <code>distinct()</code> keeps every distinct element in a hash set, which does not fit into the heap for high cardinality streams.
+ * <ul>
+ * <li>{@link #approximateDistinctCount(int)} - counts distinct elements with a {@link HyperLogLog}.
+ * Uses 2<sup>precision</sup> bytes, the standard error is 1.04 / sqrt(2<sup>precision</sup>) - for example 16 KB and 0.8% with precision 14.</li>
+ * <li>{@link #exactDistinct(long)} - finds the exact distinct strings. Keeps at most the specified memory budget in a hash set
+ * and spills sorted runs to temporary files when the budget is exceeded.
+ * Runs of similar size are merged, so at most {@value SpilledDistinct#MAX_RUN_COUNT} runs are kept
+ * and reading the result needs at most that many read buffers in addition to the budget.</li>
+ * </ul>
+ * Both collectors are mergeable across parallel splits.
+ */
+public class DistinctCollectors {
+
+	/**
+	 * Counts the approximate number of distinct elements.
+	 *
+	 * Elements are hashed with {@link #hash64(Object)}.
+	 *
+	 * @param precision the number of index bits (4 - 18), uses 2<sup>precision</sup> bytes
+	 * @return the collector returning the estimated number of distinct elements
+	 */
+	public static <T> Collector<T, ?, Long> approximateDistinctCount(int precision) {
+		return approximateDistinctCount(precision, DistinctCollectors::hash64);
+	}
+
+	/**
+	 * Counts the approximate number of distinct elements using the specified hash function.
+	 *
+	 * @param precision the number of index bits (4 - 18), uses 2<sup>precision</sup> bytes
+	 * @param hasher computes a well distributed 64 bit hash of an element
+	 * @return the collector returning the estimated number of distinct elements
+	 */
+	public static <T> Collector<T, ?, Long> approximateDistinctCount(int precision, ToLongFunction<? super T> hasher) {
+		return Collector.of(
+				() -> new HyperLogLog(precision),
+				(hyperLogLog, element) -> hyperLogLog.addHash(hasher.applyAsLong(element)),
+				HyperLogLog::merge,
+				HyperLogLog::estimate,
+				Collector.Characteristics.UNORDERED);
+	}
+
+	/**
+	 * Finds the exact distinct strings, spilling to disk when the memory budget is exceeded.
+	 *
+	 * The returned {@link SpilledDistinct} must be closed to delete the temporary files.
+	 * If the stream fails before it returns, the already spilled temporary files are not deleted.
+	 *
+	 * The budget applies to every partial result, not to the whole <code>collect()</code>.
+	 * A sequential stream has one partial result, so the heap used is bounded by the budget.
+	 * A parallel stream has one partial result per split that is being accumulated or waiting to be merged,
+	 * so the heap used is the budget times the number of these splits - at least the parallelism of the pool.
+	 * Divide the available memory by a multiple of the parallelism when collecting a parallel stream.
+	 *
+	 * @param memoryBudgetBytes the estimated heap used for the in-memory set of every partial result
+	 * @return the collector returning the {@link SpilledDistinct}
+	 */
+	public static Collector<String, ?, SpilledDistinct> exactDistinct(long memoryBudgetBytes) {
+		return Collector.of(
+				() -> new SpilledDistinct(memoryBudgetBytes),
+				SpilledDistinct::add,
+				SpilledDistinct::merge,
+				Collector.Characteristics.UNORDERED, Collector.Characteristics.IDENTITY_FINISH);
+	}
+
+	/**
+	 * Computes a 64 bit hash of an element.
+	 *
+	 * {@link CharSequence}s are hashed over all characters with 64 bits,
+	 * other elements mix their 32 bit {@link Object#hashCode()} (which limits the accuracy above about 10<sup>8</sup> distinct elements).
+	 *
+	 * @param element the element to hash
+	 * @return the 64 bit hash
+	 */
+	public static long hash64(Object element) {
+		if (element instanceof CharSequence) {
+			CharSequence chars = (CharSequence) element;
+			long hash = 0xcbf29ce484222325L; // FNV-1a
+			for (int i = 0; i < chars.length(); i++) {
+				hash ^= chars.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			return mix64(hash);
+		}
+		return mix64(element.hashCode());
+	}
+
+	private static long mix64(long value) {
+		// finalizer of MurmurHash3
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+	/**
+	 * HyperLogLog cardinality estimator.
+	 *
+	 * Every register holds the maximum number of leading zeros (+1) seen in the hashes that map to it.
+	 * Two {@link HyperLogLog}s with the same precision are merged by taking the maximum of every register.
+	 */
+	public static class HyperLogLog {
+		private final int precision;
+		private final byte[] registers;
+
+		public HyperLogLog(int precision) {
+			if (precision < 4 || precision > 18) {
+				throw new IllegalArgumentException("precision must be 4 - 18: " + precision);
+			}
+			this.precision = precision;
+			this.registers = new byte[1 << precision];
+		}
+
+		public void addHash(long hash) {
+			int index = (int) (hash >>> (64 - precision));
+			int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+			if (rank > registers[index]) {
+				registers[index] = (byte) rank;
+			}
+		}
+
+		public HyperLogLog merge(HyperLogLog other) {
+			if (other.precision != precision) {
+				throw new IllegalArgumentException("Can not merge precision " + other.precision + " into " + precision);
+			}
+			for (int i = 0; i < registers.length; i++) {
+				if (other.registers[i] > registers[i]) {
+					registers[i] = other.registers[i];
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Returns the estimated number of distinct hashes.
+		 *
+		 * @return the estimated cardinality
+		 */
+		public long estimate() {
+			int m = registers.length;
+			double sum = 0;
+			int zeroRegisters = 0;
+			for (byte register : registers) {
+				sum += 1.0 / (1L << register);
+				if (register == 0) {
+					zeroRegisters++;
+				}
+			}
+
+			double estimate = alpha(m) * m * m / sum;
+			if (estimate <= 2.5 * m && zeroRegisters > 0) {
+				// small range correction - linear counting
+				estimate = m * Math.log((double) m / zeroRegisters);
+			}
+			return Math.round(estimate);
+		}
+
+		/**
+		 * Returns the standard error of the estimate.
+		 *
+		 * @return the relative standard error
+		 */
+		public double getStandardError() {
+			return 1.04 / Math.sqrt(registers.length);
+		}
+
+		private static double alpha(int m) {
+			switch (m) {
+				case 16:
+					return 0.673;
+				case 32:
+					return 0.697;
+				case 64:
+					return 0.709;
+				default:
+					return 0.7213 / (1 + 1.079 / m);
+			}
+		}
+	}
+
+	/**
+	 * Exact set of distinct strings that spills sorted runs to temporary files.
+	 *
+	 * The strings are in memory until the estimated size exceeds the budget,
+	 * then they are sorted and written into a run file and the memory is cleared.
+	 * Reading the result merges the runs and the in-memory strings in sorted order, dropping the duplicates between them.
+	 *
+	 * The runs are merged in tiers (like a size-tiered LSM tree): a spilled run has level 0,
+	 * when {@value #MERGE_FACTOR} runs have the same level they are merged into one run of the next level.
+	 * Every string is therefore rewritten only once per level - O(log(n / budget)) times - instead of once per merge.
+	 * If there are still more than {@value #MAX_RUN_COUNT} runs, the {@value #MERGE_FACTOR} runs with the lowest levels are merged.
+	 *
+	 * The memory used is therefore bounded by the budget plus {@value #MAX_RUN_COUNT} buffers of {@value #RUN_BUFFER_SIZE} bytes
+	 * (plus the longest string of every run), independent of the size of the input.
+	 */
+	public static class SpilledDistinct implements AutoCloseable {
+		public static final int MAX_RUN_COUNT = 64;
+		public static final int MERGE_FACTOR = 16;
+		public static final int RUN_BUFFER_SIZE = 8192;
+
+		private static final int ENTRY_OVERHEAD_BYTES = 32 + 40 + 16; // HashMap node + String + char array header
+
+		private final long memoryBudgetBytes;
+		private Set<String> strings = new HashSet<>();
+		private long estimatedBytes;
+		private final List<Run> runs = new ArrayList<>();
+
+		public SpilledDistinct(long memoryBudgetBytes) {
+			this.memoryBudgetBytes = memoryBudgetBytes;
+		}
+
+		public void add(String string) {
+			if (strings.add(string)) {
+				estimatedBytes += ENTRY_OVERHEAD_BYTES + 2L * string.length();
+				if (estimatedBytes > memoryBudgetBytes) {
+					spill();
+				}
+			}
+		}
+
+		public SpilledDistinct merge(SpilledDistinct other) {
+			runs.addAll(other.runs);
+			other.runs.clear();
+			compactRuns();
+			for (String string : other.strings) {
+				add(string);
+			}
+			other.strings = new HashSet<>();
+			return this;
+		}
+
+		public int getRunCount() {
+			return runs.size();
+		}
+
+		/**
+		 * Counts the distinct strings.
+		 *
+		 * @return the number of distinct strings
+		 */
+		public long count() {
+			if (runs.isEmpty()) {
+				return strings.size();
+			}
+			long[] count = new long[1];
+			forEach(string -> count[0]++);
+			return count[0];
+		}
+
+		/**
+		 * Calls the consumer for every distinct string in sorted order.
+		 *
+		 * @param consumer the consumer
+		 */
+		public void forEach(Consumer<String> consumer) {
+			List<RunReader> readers = new ArrayList<>();
+			try {
+				for (Run run : runs) {
+					readers.add(new RunReader(run.path));
+				}
+				readers.add(new RunReader(sortedStrings()));
+				mergeRuns(readers, consumer);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			} finally {
+				for (RunReader reader : readers) {
+					reader.close();
+				}
+			}
+		}
+
+		/**
+		 * Deletes the temporary run files.
+		 */
+		@Override
+		public void close() {
+			for (Run run : runs) {
+				run.delete();
+			}
+			runs.clear();
+		}
+
+		private List<String> sortedStrings() {
+			List<String> sorted = new ArrayList<>(strings);
+			sorted.sort(null);
+			return sorted;
+		}
+
+		private void spill() {
+			writeRun(0, out -> {
+				for (String string : sortedStrings()) {
+					writeString(out, string);
+				}
+			});
+			strings = new HashSet<>();
+			estimatedBytes = 0;
+			compactRuns();
+		}
+
+		/**
+		 * Merges runs with the same level, then the runs with the lowest levels until there are at most {@link #MAX_RUN_COUNT} runs.
+		 */
+		private void compactRuns() {
+			while (true) {
+				List<Run> runsToMerge = fullLevel();
+				if (runsToMerge == null) {
+					if (runs.size() <= MAX_RUN_COUNT) {
+						return;
+					}
+					runsToMerge = new ArrayList<>(runs);
+					runsToMerge.sort((run1, run2) -> Integer.compare(run1.level, run2.level));
+					runsToMerge = runsToMerge.subList(0, MERGE_FACTOR);
+				}
+				mergeIntoRun(runsToMerge);
+			}
+		}
+
+		/**
+		 * Returns {@link #MERGE_FACTOR} runs of a level that has that many runs.
+		 *
+		 * @return the runs to merge, <code>null</code> if no level is full
+		 */
+		private List<Run> fullLevel() {
+			Map<Integer, List<Run>> runsByLevel = new HashMap<>();
+			for (Run run : runs) {
+				List<Run> levelRuns = runsByLevel.computeIfAbsent(run.level, level -> new ArrayList<>());
+				levelRuns.add(run);
+				if (levelRuns.size() == MERGE_FACTOR) {
+					return levelRuns;
+				}
+			}
+			return null;
+		}
+
+		private void mergeIntoRun(List<Run> runsToMerge) {
+			int level = 0;
+			List<RunReader> readers = new ArrayList<>();
+			try {
+				for (Run run : runsToMerge) {
+					level = Math.max(level, run.level + 1);
+					readers.add(new RunReader(run.path));
+				}
+				writeRun(level, out -> mergeRuns(readers, string -> {
+					try {
+						writeString(out, string);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+				}));
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			} finally {
+				for (RunReader reader : readers) {
+					reader.close();
+				}
+			}
+
+			for (Run run : runsToMerge) {
+				runs.remove(run);
+				run.delete();
+			}
+		}
+
+		/**
+		 * Writes a new run file and adds it to the runs - the file is deleted if writing fails.
+		 */
+		private void writeRun(int level, RunWriter writer) {
+			Path run = null;
+			try {
+				run = Files.createTempFile("distinct", ".run");
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), RUN_BUFFER_SIZE))) {
+					writer.write(out);
+				}
+				runs.add(new Run(run, level));
+			} catch (IOException | RuntimeException ex) {
+				if (run != null) {
+					try {
+						Files.deleteIfExists(run);
+					} catch (IOException deleteEx) {
+						ex.addSuppressed(deleteEx);
+					}
+				}
+				if (ex instanceof IOException) {
+					throw new UncheckedIOException((IOException) ex);
+				}
+				throw (RuntimeException) ex;
+			}
+		}
+
+		private static void writeString(DataOutputStream out, String string) throws IOException {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		/**
+		 * Merges sorted runs in sorted order, dropping the duplicates.
+		 */
+		private static void mergeRuns(List<RunReader> readers, Consumer<String> consumer) throws IOException {
+			PriorityQueue<RunReader> queue = new PriorityQueue<>((reader1, reader2) -> reader1.current.compareTo(reader2.current));
+			for (RunReader reader : readers) {
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+
+			String last = null;
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				if (!reader.current.equals(last)) {
+					last = reader.current;
+					consumer.accept(last);
+				}
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+		}
+
+		private interface RunWriter {
+			void write(DataOutputStream out) throws IOException;
+		}
+
+		private static class Run {
+			public final Path path;
+			public final int level;
+
+			public Run(Path path, int level) {
+				this.path = path;
+				this.level = level;
+			}
+
+			public void delete() {
+				try {
+					Files.deleteIfExists(path);
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}
+		}
+
+		private static class RunReader {
+			private final DataInputStream in;
+			private final List<String> strings;
+			private int index;
+			private String current;
+
+			public RunReader(Path run) throws IOException {
+				this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), RUN_BUFFER_SIZE));
+				this.strings = null;
+			}
+
+			public RunReader(List<String> strings) {
+				this.in = null;
+				this.strings = strings;
+			}
+
+			public boolean next() throws IOException {
+				if (strings != null) {
+					current = index < strings.size() ? strings.get(index++) : null;
+					return current != null;
+				}
+
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException ex) {
+					current = null;
+					return false;
+				}
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				current = new String(bytes, StandardCharsets.UTF_8);
+				return true;
+			}
+
+			public void close() {
+				try {
+					if (in != null) {
+						in.close();
+					}
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}
+		}
+	}
+}
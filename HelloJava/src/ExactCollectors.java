@@ -0,0 +1,330 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+
+/**
+ * Collectors that sum numbers exactly, without overflow.
+ *
+ * <code>Collectors.summingInt()</code> and <code>summingLong()</code> silently overflow,
+ * summing {@link BigDecimal}s with <code>reduce()</code> creates a new {@link BigDecimal} for every addition.
+ * The collectors in this class accumulate into a primitive <code>long</code> and only widen to {@link BigInteger} or {@link BigDecimal}
+ * when the <code>long</code> would overflow.
+ * {@link #summingIntExact(ToIntFunction)}, {@link #summingLongExact(ToLongFunction)} and {@link #summingDecimal(ToLongFunction, int)}
+ * do not allocate per element, {@link #summingBigDecimal(Function)} only for values with a scale (see there).
+ *
+ * For many threads adding into the same sum (outside of a stream) use {@link StripedLongSum}.
+ */
+public class ExactCollectors {
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Sums int values exactly.
+	 *
+	 * @param mapper maps an element to the value to sum
+	 * @return the collector returning the exact sum
+	 */
+	public static <T> Collector<T, ?, BigInteger> summingIntExact(ToIntFunction<? super T> mapper) {
+		return Collector.of(
+				LongSum::new,
+				(sum, element) -> sum.add(mapper.applyAsInt(element)),
+				LongSum::merge,
+				LongSum::toBigInteger);
+	}
+
+	/**
+	 * Sums long values exactly.
+	 *
+	 * @param mapper maps an element to the value to sum
+	 * @return the collector returning the exact sum
+	 */
+	public static <T> Collector<T, ?, BigInteger> summingLongExact(ToLongFunction<? super T> mapper) {
+		return Collector.of(
+				LongSum::new,
+				(sum, element) -> sum.add(mapper.applyAsLong(element)),
+				LongSum::merge,
+				LongSum::toBigInteger);
+	}
+
+	/**
+	 * Sums {@link BigDecimal} values exactly.
+	 *
+	 * Values with up to 18 digits are accumulated as unscaled <code>long</code> - no {@link BigDecimal} is created per addition.
+	 * Reading the unscaled value of a {@link BigDecimal} with a scale other than 0 allocates a {@link BigInteger}
+	 * (<code>BigDecimal</code> has no allocation free accessor for it), so only values with scale 0 are added without allocation.
+	 * Use {@link #summingDecimal(ToLongFunction, int)} to sum values with a scale without allocation.
+	 * The scale of the result is the maximum scale of all values (same as {@link BigDecimal#add(BigDecimal)}).
+	 *
+	 * @param mapper maps an element to the value to sum
+	 * @return the collector returning the exact sum
+	 */
+	public static <T> Collector<T, ?, BigDecimal> summingBigDecimal(Function<? super T, BigDecimal> mapper) {
+		return Collector.of(
+				DecimalSum::new,
+				(sum, element) -> sum.add(mapper.apply(element)),
+				DecimalSum::merge,
+				DecimalSum::toBigDecimal);
+	}
+
+	/**
+	 * Sums decimal values given as unscaled <code>long</code> with a fixed scale exactly.
+	 *
+	 * Useful for amounts stored in cents (scale 2) - no object is created per element.
+	 *
+	 * @param unscaledMapper maps an element to the unscaled value to sum
+	 * @param scale the scale of all the unscaled values
+	 * @return the collector returning the exact sum with the specified scale
+	 */
+	public static <T> Collector<T, ?, BigDecimal> summingDecimal(ToLongFunction<? super T> unscaledMapper, int scale) {
+		return Collector.of(
+				LongSum::new,
+				(sum, element) -> sum.add(unscaledMapper.applyAsLong(element)),
+				LongSum::merge,
+				sum -> new BigDecimal(sum.toBigInteger(), scale));
+	}
+
+	/**
+	 * Mutable exact sum of <code>long</code> values.
+	 *
+	 * Accumulates into a <code>long</code> and moves the value into a {@link BigInteger} when an addition would overflow.
+	 */
+	public static class LongSum {
+		private long sum;
+		private BigInteger overflow = BigInteger.ZERO;
+
+		public void add(long value) {
+			long result = sum + value;
+			if (((sum ^ result) & (value ^ result)) < 0) {
+				// overflow - same check as Math.addExact() without the exception
+				overflow = overflow.add(BigInteger.valueOf(sum));
+				result = value;
+			}
+			sum = result;
+		}
+
+		public LongSum merge(LongSum other) {
+			add(other.sum);
+			if (other.overflow.signum() != 0) {
+				overflow = overflow.add(other.overflow);
+			}
+			return this;
+		}
+
+		/**
+		 * Returns whether the sum fits into a <code>long</code>.
+		 *
+		 * @return <code>true</code> if {@link #longValue()} is exact
+		 */
+		public boolean isLong() {
+			return toBigInteger().bitLength() < 64;
+		}
+
+		/**
+		 * Returns the sum as <code>long</code>.
+		 *
+		 * @return the sum
+		 * @throws ArithmeticException if the sum does not fit into a <code>long</code>
+		 */
+		public long longValue() {
+			if (overflow.signum() == 0) {
+				return sum;
+			}
+			return toBigInteger().longValueExact();
+		}
+
+		public BigInteger toBigInteger() {
+			if (overflow.signum() == 0) {
+				return BigInteger.valueOf(sum);
+			}
+			return overflow.add(BigInteger.valueOf(sum));
+		}
+
+		@Override
+		public String toString() {
+			return toBigInteger().toString();
+		}
+	}
+
+	/**
+	 * Mutable exact sum of {@link BigDecimal} values.
+	 *
+	 * Accumulates the unscaled values into a <code>long</code> with the maximum scale seen so far
+	 * and only widens into a {@link BigDecimal} when the unscaled value would overflow.
+	 */
+	public static class DecimalSum {
+		private long unscaledSum;
+		private int scale;
+		private BigDecimal overflow;
+
+		public void add(BigDecimal value) {
+			int valueScale = value.scale();
+			if (value.precision() > 18 || valueScale < 0 || valueScale > 18) {
+				addSlow(value);
+				return;
+			}
+
+			long unscaledValue = valueScale == 0 ? value.longValue() : value.unscaledValue().longValue();
+			add(unscaledValue, valueScale);
+		}
+
+		/**
+		 * Adds a decimal value given as unscaled <code>long</code> and scale.
+		 *
+		 * @param unscaledValue the unscaled value
+		 * @param valueScale the scale of the value (0 - 18)
+		 */
+		public void add(long unscaledValue, int valueScale) {
+			if (valueScale > scale) {
+				long rescaledSum = multiplyPowerOfTen(unscaledSum, valueScale - scale);
+				if (rescaledSum == Long.MIN_VALUE) {
+					widen();
+					rescaledSum = 0;
+				}
+				unscaledSum = rescaledSum;
+				scale = valueScale;
+			} else if (valueScale < scale) {
+				long rescaledValue = multiplyPowerOfTen(unscaledValue, scale - valueScale);
+				if (rescaledValue == Long.MIN_VALUE) {
+					addSlow(BigDecimal.valueOf(unscaledValue, valueScale));
+					return;
+				}
+				unscaledValue = rescaledValue;
+			}
+
+			long result = unscaledSum + unscaledValue;
+			if (((unscaledSum ^ result) & (unscaledValue ^ result)) < 0) {
+				widen();
+				result = unscaledValue;
+			}
+			unscaledSum = result;
+		}
+
+		public DecimalSum merge(DecimalSum other) {
+			add(other.unscaledSum, other.scale);
+			if (other.overflow != null) {
+				addSlow(other.overflow);
+			}
+			return this;
+		}
+
+		public BigDecimal toBigDecimal() {
+			BigDecimal result = BigDecimal.valueOf(unscaledSum, scale);
+			if (overflow != null) {
+				result = result.add(overflow);
+			}
+			return result;
+		}
+
+		private void addSlow(BigDecimal value) {
+			overflow = overflow == null ? value : overflow.add(value);
+		}
+
+		private void widen() {
+			addSlow(BigDecimal.valueOf(unscaledSum, scale));
+			unscaledSum = 0;
+		}
+
+		/**
+		 * Multiplies with a power of ten.
+		 *
+		 * @return the result, {@link Long#MIN_VALUE} on overflow
+		 */
+		private static long multiplyPowerOfTen(long value, int exponent) {
+			if (exponent >= POWERS_OF_TEN.length) {
+				return value == 0 ? 0 : Long.MIN_VALUE;
+			}
+			long factor = POWERS_OF_TEN[exponent];
+			long result = value * factor;
+			if (result / factor != value || result == Long.MIN_VALUE) {
+				return Long.MIN_VALUE;
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return toBigDecimal().toString();
+		}
+	}
+
+	/**
+	 * Exact sum of <code>long</code> values shared by many threads - similar to {@link java.util.concurrent.atomic.LongAdder} but without overflow.
+	 *
+	 * Every thread adds into one of several cells (on separate cache lines), so concurrent producers rarely contend.
+	 * A cell that would overflow moves its value into a shared {@link BigInteger} (the only synchronized path).
+	 * Like {@link java.util.concurrent.atomic.LongAdder#sum()} the {@link #sum()} is not an atomic snapshot while other threads are adding.
+	 */
+	public static class StripedLongSum {
+		private static final int PADDING = 8; // 8 longs = 64 bytes = one cache line
+
+		private final int cellMask;
+		private final AtomicLongArray cells;
+		private BigInteger overflow = BigInteger.ZERO;
+
+		public StripedLongSum() {
+			this(Runtime.getRuntime().availableProcessors());
+		}
+
+		/**
+		 * Creates a {@link StripedLongSum} with the specified number of cells.
+		 *
+		 * @param concurrency the expected number of concurrently adding threads (rounded up to a power of 2)
+		 */
+		public StripedLongSum(int concurrency) {
+			int cellCount = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+			cellMask = cellCount - 1;
+			cells = new AtomicLongArray(cellCount * PADDING);
+		}
+
+		public void add(long value) {
+			int index = cellIndex();
+			while (true) {
+				long current = cells.get(index);
+				long result = current + value;
+				if (((current ^ result) & (value ^ result)) < 0) {
+					if (cells.compareAndSet(index, current, 0)) {
+						addOverflow(BigInteger.valueOf(current).add(BigInteger.valueOf(value)));
+						return;
+					}
+				} else if (cells.compareAndSet(index, current, result)) {
+					return;
+				}
+			}
+		}
+
+		public BigInteger sum() {
+			LongSum sum = new LongSum();
+			for (int i = 0; i <= cellMask; i++) {
+				sum.add(cells.get(i * PADDING));
+			}
+			synchronized (this) {
+				return sum.toBigInteger().add(overflow);
+			}
+		}
+
+		private synchronized void addOverflow(BigInteger value) {
+			overflow = overflow.add(value);
+		}
+
+		private int cellIndex() {
+			long id = Thread.currentThread().getId();
+			int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+			return ((hash ^ (hash >>> 16)) & cellMask) * PADDING;
+		}
+
+		@Override
+		public String toString() {
+			return sum().toString();
+		}
+	}
+}
@@ -1,5 +1,7 @@
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.function.ToLongFunction;
 import java.util.stream.Stream;
 
 public class HelloOptionals {
@@ -23,6 +25,11 @@ public class HelloOptionals {
 		helloExampleOptionalStreamFindAny();
 		helloExampleOptionalStreamMin();
 		
+		// allocation free alternatives to Optional
+		helloPrimitiveResults();
+		helloPrimitiveResultsStream();
+		helloExamplePrimitiveResultsAllocation();
+		
 		// javafx Dialog also returns Optional
 	}
 
@@ -116,4 +123,124 @@ public class HelloOptionals {
 		// similar Stream functions: min(), max()
 	}
 	
+	private static void helloPrimitiveResults() {
+		long optionalLength = PrimitiveResults.IntResult.of("hello".length()); // optional int encoded in a primitive long - no object
+
+		long optionalTwiceLength = PrimitiveResults.IntResult.map(optionalLength, length -> length * 2);
+		long optionalLongTwiceLength = PrimitiveResults.IntResult.filter(optionalTwiceLength, length -> length > 20);
+		System.out.println(PrimitiveResults.IntResult.toString(optionalTwiceLength));
+		System.out.println(PrimitiveResults.IntResult.orElse(optionalLongTwiceLength, -1));
+
+		// fused map(), filter() and orElse()
+		System.out.println(PrimitiveResults.IntResult.mapFilterOrElse(optionalLength, length -> length * 2, length -> length > 20, -1));
+
+		String optionalString = PrimitiveResults.RefResult.filter("hello", str -> str.contains("e")); // references use null as empty
+		System.out.println(PrimitiveResults.RefResult.orElse(optionalString, "<Undefined>"));
+	}
+
+	private static void helloPrimitiveResultsStream() {
+		long minLength = PrimitiveResults.minInt(Stream.of("hello", "world", "!"), str -> str.length()); // like mapToInt().min() without OptionalInt
+		System.out.println(PrimitiveResults.IntResult.toString(minLength));
+
+		long maxLength = PrimitiveResults.maxInt(Stream.<String> empty(), str -> str.length());
+		System.out.println(PrimitiveResults.IntResult.toString(maxLength));
+
+		String longest = PrimitiveResults.maxBy(Stream.of("hello", "world", "!"), str -> str.length()); // like max() without Optional
+		System.out.println(PrimitiveResults.RefResult.orElse(longest, "<Undefined>"));
+	}
+
+	private static void helloExamplePrimitiveResultsAllocation() {
+		if (!AllocationCounter.isSupported()) {
+			System.out.println("Allocation can not be measured in this JVM");
+			return;
+		}
+
+		String[] values = { "hello", "world", "e", "" };
+		int n = 10000000;
+
+		for (int warmup = 0; warmup < 3; warmup++) {
+			lookupOptional(values, n);
+			lookupPrimitiveResult(values, n);
+		}
+
+		long startBytes = AllocationCounter.currentThreadAllocatedBytes();
+		int sum = lookupOptional(values, n);
+		long optionalBytes = AllocationCounter.currentThreadAllocatedBytes() - startBytes;
+
+		startBytes = AllocationCounter.currentThreadAllocatedBytes();
+		sum += lookupPrimitiveResult(values, n);
+		long primitiveResultBytes = AllocationCounter.currentThreadAllocatedBytes() - startBytes;
+
+		System.out.println("Optional:        " + (double) optionalBytes / n + " bytes/op");
+		System.out.println("PrimitiveResult: " + (double) primitiveResultBytes / n + " bytes/op");
+		System.out.println(sum); // use result - prevents dead code elimination
+
+		// the stream terminal operations allocate the pipeline once per call, but nothing per element
+		String[] smallStrings = strings(1000);
+		String[] largeStrings = strings(1000000);
+		checkAllocationPerElement("minInt", smallStrings, largeStrings, strings -> PrimitiveResults.minInt(Arrays.stream(strings), String::length));
+		checkAllocationPerElement("maxInt", smallStrings, largeStrings, strings -> PrimitiveResults.maxInt(Arrays.stream(strings), String::length));
+		checkAllocationPerElement("findAnyInt", smallStrings, largeStrings, strings -> PrimitiveResults.findAnyInt(Arrays.stream(strings), String::length));
+		checkAllocationPerElement("maxBy", smallStrings, largeStrings, strings -> PrimitiveResults.maxBy(Arrays.stream(strings), String::length).length());
+	}
+
+	private static String[] strings(int n) {
+		String[] strings = new String[n];
+		for (int i = 0; i < n; i++) {
+			strings[i] = Integer.toString(i);
+		}
+		return strings;
+	}
+
+	/**
+	 * Measures the allocated bytes of a stream operation with a small and a large stream.
+	 * The difference divided by the difference of the sizes is the allocation per element, independent of the fixed cost per call.
+	 */
+	private static void checkAllocationPerElement(String name, String[] smallStrings, String[] largeStrings, ToLongFunction<String[]> operation) {
+		int calls = 20;
+		long sum = 0;
+		for (int warmup = 0; warmup < 200; warmup++) {
+			sum += operation.applyAsLong(smallStrings);
+			sum += operation.applyAsLong(largeStrings);
+		}
+
+		long startBytes = AllocationCounter.currentThreadAllocatedBytes();
+		for (int i = 0; i < calls; i++) {
+			sum += operation.applyAsLong(smallStrings);
+		}
+		long smallBytes = AllocationCounter.currentThreadAllocatedBytes() - startBytes;
+
+		startBytes = AllocationCounter.currentThreadAllocatedBytes();
+		for (int i = 0; i < calls; i++) {
+			sum += operation.applyAsLong(largeStrings);
+		}
+		long largeBytes = AllocationCounter.currentThreadAllocatedBytes() - startBytes;
+
+		double bytesPerCall = (double) smallBytes / calls;
+		double bytesPerElement = (double) (largeBytes - smallBytes) / calls / (largeStrings.length - smallStrings.length);
+		System.out.println(name + ": " + bytesPerCall + " bytes/call, " + bytesPerElement + " bytes/element (" + sum + ")");
+		if (bytesPerElement > 0.01) {
+			throw new IllegalStateException(name + " allocates " + bytesPerElement + " bytes/element");
+		}
+	}
+
+	private static int lookupOptional(String[] values, int n) {
+		int sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += Optional.of(values[i & 3])
+				.map(str -> str.length())
+				.filter(length -> length > 1)
+				.orElse(0);
+		}
+		return sum;
+	}
+
+	private static int lookupPrimitiveResult(String[] values, int n) {
+		int sum = 0;
+		for (int i = 0; i < n; i++) {
+			long length = PrimitiveResults.IntResult.of(values[i & 3].length());
+			sum += PrimitiveResults.IntResult.orElse(PrimitiveResults.IntResult.filter(length, value -> value > 1), 0);
+		}
+		return sum;
+	}
 }
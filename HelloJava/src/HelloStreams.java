@@ -1,6 +1,10 @@
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -9,9 +13,11 @@ import java.util.Optional;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * This is a collection of code snippets using Java streams.
@@ -74,6 +80,7 @@ public class HelloStreams {
 		helloFilter();
 		helloCollectToList();
 		helloPeek();
+		helloPeekInstrumented();
 		helloCollectToMyListIncomplete();
 		helloCollectToMyListParallel();
 		helloCollectToMap1();
@@ -83,10 +90,13 @@ public class HelloStreams {
 		helloMapToCollection();
 		helloFlatMap();
 		helloFlatMapDistinct();
+		helloFlatMapDistinctBounded();
 		helloGroupingBy1();
 		helloGroupingBy2();
 		helloGroupingBy3();
+		helloGroupingByRadixSorted();
 		helloPartitioningBy();
+		helloIndexedQuery();
 		helloMapToInt();
 		helloMapToIntSum();
 		helloCollectSummingInt();
@@ -95,11 +105,16 @@ public class HelloStreams {
 		helloMapReduceSum3();
 		helloMapCollectAtomicIntSum();
 		helloMapCollectBigDecimalArraySum();
+		helloCollectSummingExact();
 		
 		helloIntStream();
 		helloArrayStream();
 		
 		helloExampleParallelWithNumberOfThreads();
+		helloExampleQueryExecutor();
+		helloExampleMemoryMappedPersonFile();
+		helloExampleColumnFile();
+		helloExampleLiveCollection();
 		helloExampleFindNamesOfPersonsWithSameAge();
 		helloExampleFindNameOfPersonWithMostHobbies1();
 		helloExampleFindNameOfPersonWithMostHobbies2();
@@ -128,6 +143,17 @@ public class HelloStreams {
 		System.out.println(result);
 	}
 
+	private static void helloPeekInstrumented() {
+		PipelineInstrumentation instrumentation = new PipelineInstrumentation(0.1); // time and measure allocation of 10% of the elements
+		List<String> result = PERSONS.stream()
+			.parallel()
+			.filter(instrumentation.filter("age == 25", person -> person.age == 25)) // counts elements in and out - safe with parallel()
+			.flatMap(instrumentation.flatMap("hobbies", person -> person.hobbies.stream())) // counts the hobbies coming out
+			.collect(Collectors.toList());
+		System.out.println(result);
+		System.out.println(instrumentation); // per stage: counts, selectivity, estimated time and allocation, latency percentiles
+	}
+
 	private static void helloCollectToMyListIncomplete() {
 		// Incomplete collection to List, see next example for complete solution
 		List<Person> result = PERSONS.stream()
@@ -222,6 +248,22 @@ public class HelloStreams {
 		// other interesting methods similar to distinct(): limit(), sorted(), skip()
 	}
 
+	private static void helloFlatMapDistinctBounded() {
+		long approximateCount = PERSONS.stream()
+			.parallel()
+			.flatMap(person -> person.hobbies.stream())
+			.collect(DistinctCollectors.approximateDistinctCount(14)); // HyperLogLog - 16 KB memory, ~0.8% standard error
+		System.out.println(approximateCount);
+
+		try (DistinctCollectors.SpilledDistinct distinct = PERSONS.stream()
+				.parallel()
+				.flatMap(person -> person.hobbies.stream())
+				.collect(DistinctCollectors.exactDistinct(200))) { // exact - spills sorted runs to disk above 200 bytes
+			System.out.println(distinct.count());
+			distinct.forEach(System.out::println); // sorted distinct hobbies
+		}
+	}
+
 	private static void helloGroupingBy1() {
 		Map<Integer, List<Person>> result = PERSONS.stream()
 			.parallel()
@@ -250,6 +292,14 @@ public class HelloStreams {
 			.forEach(System.out::println);
 	}
 
+	private static void helloGroupingByRadixSorted() {
+		OrderedGroupingCollectors.SortedGroups<Integer, Person> result = PERSONS.stream()
+			.parallel()
+			.collect(OrderedGroupingCollectors.groupingByInt(person -> person.age)); // collects (key, person) pairs - radix sorted once at the end
+		result.asMap().entrySet().stream() // entries in ascending key order - like the TreeMap in helloGroupingBy3()
+			.forEach(System.out::println);
+	}
+
 	private static void helloPartitioningBy() {
 		Map<Boolean, List<Person>> result = PERSONS.stream()
 			.parallel()
@@ -258,6 +308,19 @@ public class HelloStreams {
 		System.out.println("Old:   " + result.get(true));
 	}
 
+	private static void helloIndexedQuery() {
+		IndexedPersonCollection persons = new IndexedPersonCollection(PERSONS); // sorted age index - build once, query often
+
+		System.out.println(persons.list(IndexedPersonCollection.Query.ageEquals(25))); // binary search instead of filter(person -> person.age == 25)
+		System.out.println("Young: " + persons.list(IndexedPersonCollection.Query.ageLessThan(40)));
+		System.out.println("Old:   " + persons.list(IndexedPersonCollection.Query.ageAtLeast(40)));
+		System.out.println(persons.count(IndexedPersonCollection.Query.ageBetween(20, 60))); // counted from the index alone
+
+		IndexedPersonCollection.Query query = IndexedPersonCollection.Query.ageAtLeast(40)
+				.and(person -> person.hobbies.contains("Karate")); // not indexed - scans only the persons with age >= 40
+		System.out.println(persons.list(query));
+	}
+
 	private static void helloMapToInt() {
 		PERSONS.stream()
 			.mapToInt(person -> person.age) // now a stream of primitive int type
@@ -334,6 +397,27 @@ public class HelloStreams {
 		System.out.println(sum[0]);
 	}
 
+	private static void helloCollectSummingExact() {
+		BigInteger sum = PERSONS.stream()
+			.parallel()
+			.collect(ExactCollectors.summingIntExact(person -> person.age)); // sums into a primitive long - widens to BigInteger only on overflow
+		System.out.println(sum);
+
+		BigDecimal decimalSum = PERSONS.stream()
+			.parallel()
+			.collect(ExactCollectors.summingBigDecimal(person -> BigDecimal.valueOf(person.age, 1))); // no new BigDecimal per addition (but the mapper creates one)
+		System.out.println(decimalSum);
+
+		BigDecimal unscaledSum = PERSONS.stream()
+			.parallel()
+			.collect(ExactCollectors.summingDecimal(person -> person.age, 1)); // same sum from unscaled values - no allocation per element
+		System.out.println(unscaledSum);
+
+		ExactCollectors.StripedLongSum sharedSum = new ExactCollectors.StripedLongSum(); // for many threads adding into the same sum
+		PERSONS.parallelStream().forEach(person -> sharedSum.add(person.age));
+		System.out.println(sharedSum.sum());
+	}
+
 	private static void helloExampleFindNamesOfPersonsWithSameAge() {
 		Map<Integer, List<String>> result = PERSONS.stream()
 			.collect(Collectors.groupingBy(person -> person.age)) // group into Map<Integer, List<Person>> with the age as key
@@ -361,6 +445,7 @@ public class HelloStreams {
 	}
 
 	private static void helloExampleParallelWithNumberOfThreads() {
+		// note: relies on the parallel stream using the ForkJoinPool it was started in - see helloExampleQueryExecutor() for a better solution
 		ForkJoinPool forkJoinPool = new ForkJoinPool(2);
 		try {
 			List<Person> result = forkJoinPool.submit(() ->
@@ -372,7 +457,89 @@ public class HelloStreams {
 			System.out.println(result);
 		} catch (InterruptedException | ExecutionException e) {
 			e.printStackTrace();
-		}		
+		} finally {
+			forkJoinPool.shutdown(); // the pool is not shared - release its threads
+		}
+	}
+
+	private static void helloExampleQueryExecutor() {
+		try (QueryExecutor executor = new QueryExecutor("tenant-a", 2)) { // named pool with bounded parallelism - shut down at the end
+			List<Person> result = executor.execute(
+					context -> PERSONS.stream()
+						.parallel()
+						.peek(person -> context.checkpoint()) // stops the query if cancelled or the deadline has passed
+						.filter(person -> person.age == 25)
+						.map(person -> executor.blocking(() -> person)) // blocking stages (I/O) let the pool compensate
+						.collect(Collectors.toList()),
+					1, TimeUnit.SECONDS); // deadline
+			System.out.println(result);
+			System.out.println(executor.getMetrics());
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void helloExampleMemoryMappedPersonFile() {
+		try {
+			Path path = Files.createTempFile("persons", ".csv");
+			Files.write(path, PERSONS.stream()
+					.map(person -> person.name + "," + person.age + "," + String.join(";", person.hobbies)) // one line per person: name,age,hobby1;hobby2
+					.collect(Collectors.toList()));
+
+			try (Stream<Person> persons = PersonFileReader.persons(path, PersonFileReader.CSV)) { // memory mapped - close the stream to close the file
+				List<Person> result = persons
+					.parallel() // the file is split on line boundaries - every thread parses its own part
+					.filter(person -> person.age == 25)
+					.collect(Collectors.toList());
+				System.out.println(result);
+			}
+
+			try (IntStream ages = PersonFileReader.ages(path, PersonFileReader.CSV)) { // parses only the age column - no Strings created
+				System.out.println(ages.parallel().summaryStatistics());
+			}
+
+			Files.delete(path);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void helloExampleColumnFile() {
+		try {
+			Path path = Files.createTempFile("persons", ".pcol");
+			PersonColumnFile.write(path, PERSONS.stream(), 2); // streams the persons into blocks of 2 rows
+
+			try (PersonColumnFile.Reader reader = PersonColumnFile.open(path)) { // blocks are memory mapped when accessed
+				System.out.println(reader.countWithAge(25, 25)); // uses only the age column - blocks without age 25 are skipped
+				List<Person> result = reader.personsWithAge(25, 25) // only matching rows are materialized into Persons
+					.collect(Collectors.toList());
+				System.out.println(result);
+			}
+
+			Files.delete(path);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void helloExampleLiveCollection() {
+		LiveCollection<Person> persons = new LiveCollection<>();
+		// aggregations are registered once and maintained on every add/remove/update - no recomputation over all persons
+		LiveCollection.Aggregation<Person, Map<Integer, Long>> countByAge = persons.register(LiveCollection.groupingByCounting(person -> person.age));
+		LiveCollection.Aggregation<Person, Map<Boolean, List<Person>>> oldAndYoung = persons.register(LiveCollection.partitioningBy(person -> person.age >= 40));
+		LiveCollection.Aggregation<Person, Long> sumAge = persons.register(LiveCollection.summingInt(person -> person.age));
+		LiveCollection.Aggregation<Person, Optional<Person>> mostHobbies = persons.register(LiveCollection.maxBy(person -> person.hobbies.size()));
+
+		PERSONS.forEach(persons::add);
+		Person doris = PERSONS.get(3);
+		persons.update(doris, new Person(doris.name, doris.age + 20, doris.hobbies)); // Doris gets older
+		persons.remove(PERSONS.get(1)); // Bob leaves
+
+		LiveCollection.Snapshot<Person> snapshot = persons.snapshot(); // all results at the same point in time
+		System.out.println(snapshot.get(countByAge));
+		System.out.println("Old: " + snapshot.get(oldAndYoung).get(true));
+		System.out.println(snapshot.get(sumAge));
+		System.out.println(snapshot.get(mostHobbies));
 	}
 	
 	private static void helloExampleFindNameOfPersonWithMostHobbies1() {
@@ -0,0 +1,359 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks the collector and parallelism patterns of {@link HelloStreams} on synthetic data.
+ *
+ * Every pattern runs sequential and parallel for every size. For every run the benchmark measures
+ * the throughput (elements per second), the allocated bytes per element (summed over all threads, like the JMH GC profiler)
+ * and the number of garbage collections and their time. The last column is the speedup of parallel over sequential.
+ *
+ * Every pattern runs in its own JVM (started with the same JVM options), like a JMH fork.
+ * In a shared JVM the later patterns would inherit the megamorphic call sites of the stream classes from the earlier ones
+ * and the results would depend on the order of the patterns.
+ *
+ * Usage: <code>java -Xmx8g HelloStreamsBenchmark [sizes] [ageSkew] [hobbyCardinality] [patterns]</code>,
+ * for example <code>java -Xmx32g HelloStreamsBenchmark 1000,100000,10000000,100000000 2.0 1000</code>.
+ * With the comma separated pattern names the patterns run in the current JVM without forking.
+ * Sizes above 10 million need a large heap - the data alone takes about 100 bytes per person.
+ */
+public class HelloStreamsBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASUREMENT_ITERATIONS = 10;
+	private static final long MIN_ITERATION_NANOS = 100_000_000L;
+
+	private static volatile Object blackhole;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String sizesArgument = args.length > 0 ? args[0] : "1000,100000,1000000";
+		String ageSkewArgument = args.length > 1 ? args[1] : "1.0";
+		String hobbyCardinalityArgument = args.length > 2 ? args[2] : "100";
+
+		if (args.length > 3) {
+			int[] sizes = Arrays.stream(sizesArgument.split(",")).mapToInt(Integer::parseInt).toArray();
+			runPatterns(sizes, Double.parseDouble(ageSkewArgument), Integer.parseInt(hobbyCardinalityArgument), Arrays.asList(args[3].split(",")));
+			return;
+		}
+
+		System.out.println("pattern,size,mode,elements/s,bytes/element,gcCount,gcMillis,speedup");
+		for (String pattern : patterns().keySet()) {
+			fork(sizesArgument, ageSkewArgument, hobbyCardinalityArgument, pattern);
+		}
+	}
+
+	/**
+	 * Runs a single pattern in a new JVM with the same class path and JVM options, the output goes to the output of this JVM.
+	 */
+	private static void fork(String sizes, String ageSkew, String hobbyCardinality, String pattern) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(HelloStreamsBenchmark.class.getName());
+		command.add(sizes);
+		command.add(ageSkew);
+		command.add(hobbyCardinality);
+		command.add(pattern);
+
+		int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if (exitCode != 0) {
+			throw new IllegalStateException("Benchmark of pattern " + pattern + " failed with exit code " + exitCode);
+		}
+	}
+
+	private static void runPatterns(int[] sizes, double ageSkew, int hobbyCardinality, List<String> patternNames) {
+		Map<String, Function<Stream<HelloStreams.Person>, Object>> patterns = patterns();
+		for (String patternName : patternNames) {
+			if (!patterns.containsKey(patternName)) {
+				throw new IllegalArgumentException("Unknown pattern: " + patternName);
+			}
+		}
+
+		for (int size : sizes) {
+			List<HelloStreams.Person> persons = new PersonGenerator(42)
+				.ageSkew(ageSkew)
+				.hobbyCardinality(hobbyCardinality)
+				.generate(size);
+
+			for (String patternName : patternNames) {
+				Function<Stream<HelloStreams.Person>, Object> pattern = patterns.get(patternName);
+				Result sequential = measure(persons, false, pattern);
+				Result parallel = measure(persons, true, pattern);
+				System.out.println(patternName + "," + size + ",sequential," + sequential);
+				System.out.println(patternName + "," + size + ",parallel," + parallel + "," + String.format(Locale.ROOT, "%.2f", parallel.elementsPerSecond / sequential.elementsPerSecond));
+			}
+		}
+	}
+
+	/**
+	 * Returns the benchmarked pipelines - the patterns of {@link HelloStreams} and their faster alternatives.
+	 *
+	 * @return the pipelines by name, in the order they are run
+	 */
+	private static Map<String, Function<Stream<HelloStreams.Person>, Object>> patterns() {
+		Map<String, Function<Stream<HelloStreams.Person>, Object>> patterns = new LinkedHashMap<>();
+
+		patterns.put("filterToList", stream -> stream
+				.filter(person -> person.age == 25)
+				.collect(Collectors.toList()));
+		patterns.put("filterCustomCollect", stream -> stream
+				.filter(person -> person.age == 25)
+				.collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
+
+		patterns.put("toMapMerge", stream -> stream
+				.collect(Collectors.toMap(person -> person.age, person -> person.name, (name1, name2) -> name1)));
+		patterns.put("groupingByHashMap", stream -> stream
+				.collect(Collectors.groupingBy(person -> person.age)));
+		patterns.put("groupingByTreeMap", stream -> stream
+				.collect(Collectors.groupingBy(person -> person.age, TreeMap::new, Collectors.toList())));
+		patterns.put("groupingByRadixSorted", stream -> stream
+				.collect(OrderedGroupingCollectors.groupingByInt(person -> person.age)));
+		patterns.put("partitioningBy", stream -> stream
+				.collect(Collectors.partitioningBy(person -> person.age >= 40)));
+
+		patterns.put("mapToIntSum", stream -> stream
+				.mapToInt(person -> person.age)
+				.sum());
+		patterns.put("summingInt", stream -> stream
+				.collect(Collectors.summingInt(person -> person.age)));
+		patterns.put("summingIntExact", stream -> stream
+				.collect(ExactCollectors.summingIntExact(person -> person.age)));
+		patterns.put("atomicIntegerCollect", stream -> stream
+				.map(person -> person.age)
+				.collect(() -> new AtomicInteger(0), (accu, value) -> accu.addAndGet(value), (accu, accuValue) -> accu.addAndGet(accuValue.get()))
+				.get());
+		patterns.put("intArrayCollect", stream -> stream
+				.collect(() -> new int[1], (accu, person) -> accu[0] += person.age, (accu1, accu2) -> accu1[0] += accu2[0])[0]);
+
+		patterns.put("bigDecimalReduce", stream -> stream
+				.map(person -> BigDecimal.valueOf(person.age))
+				.reduce(BigDecimal.ZERO, BigDecimal::add));
+		patterns.put("bigDecimalArrayCollect", stream -> stream
+				.map(person -> BigDecimal.valueOf(person.age))
+				.collect(() -> new BigDecimal[] { BigDecimal.ZERO }, (accu, value) -> accu[0] = accu[0].add(value), (accu1, accu2) -> accu1[0] = accu1[0].add(accu2[0]))[0]);
+		patterns.put("summingBigDecimal", stream -> stream
+				.collect(ExactCollectors.summingBigDecimal(person -> BigDecimal.valueOf(person.age))));
+
+		patterns.put("flatMapDistinct", stream -> stream
+				.flatMap(person -> person.hobbies.stream())
+				.distinct()
+				.count());
+		patterns.put("flatMapApproximateDistinct", stream -> stream
+				.flatMap(person -> person.hobbies.stream())
+				.collect(DistinctCollectors.approximateDistinctCount(14)));
+
+		patterns.put("maxHobbiesPair", stream -> stream
+				.map(person -> new NameAndCount(person.name, person.hobbies.size()))
+				.max((entry1, entry2) -> Integer.compare(entry1.count, entry2.count)));
+		patterns.put("maxHobbiesPrimitive", stream -> PrimitiveResults.maxBy(stream, person -> person.hobbies.size()));
+
+		return patterns;
+	}
+
+	private static Result measure(List<HelloStreams.Person> persons, boolean parallel, Function<Stream<HelloStreams.Person>, Object> pattern) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			runIteration(persons, parallel, pattern);
+		}
+
+		long gcCountBefore = gcCount();
+		long gcMillisBefore = gcMillis();
+		long allocatedBytesBefore = allocatedBytes();
+		long totalNanos = 0;
+		long totalElements = 0;
+		for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+			long[] iteration = runIteration(persons, parallel, pattern);
+			totalNanos += iteration[0];
+			totalElements += iteration[1];
+		}
+		long allocatedBytes = allocatedBytes() - allocatedBytesBefore;
+
+		return new Result(
+				totalElements * 1_000_000_000.0 / totalNanos,
+				(double) allocatedBytes / totalElements,
+				gcCount() - gcCountBefore,
+				gcMillis() - gcMillisBefore);
+	}
+
+	/**
+	 * Runs the pattern repeatedly for at least {@link #MIN_ITERATION_NANOS} (small sizes are too fast to measure once).
+	 *
+	 * @return the elapsed nanoseconds and the number of processed elements
+	 */
+	private static long[] runIteration(List<HelloStreams.Person> persons, boolean parallel, Function<Stream<HelloStreams.Person>, Object> pattern) {
+		long startNanos = System.nanoTime();
+		long elements = 0;
+		long elapsedNanos;
+		do {
+			Stream<HelloStreams.Person> stream = parallel ? persons.parallelStream() : persons.stream();
+			blackhole = pattern.apply(stream);
+			elements += persons.size();
+			elapsedNanos = System.nanoTime() - startNanos;
+		} while (elapsedNanos < MIN_ITERATION_NANOS);
+		return new long[] { elapsedNanos, elements };
+	}
+
+	private static long allocatedBytes() {
+		// sum over all threads - parallel streams allocate in the ForkJoinPool workers
+		return AllocationCounter.allThreadsAllocatedBytes();
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private static class Result {
+		public final double elementsPerSecond;
+		public final double bytesPerElement;
+		public final long gcCount;
+		public final long gcMillis;
+
+		public Result(double elementsPerSecond, double bytesPerElement, long gcCount, long gcMillis) {
+			this.elementsPerSecond = elementsPerSecond;
+			this.bytesPerElement = bytesPerElement;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%.0f,%.1f,%d,%d", elementsPerSecond, bytesPerElement, gcCount, gcMillis);
+		}
+	}
+
+	/**
+	 * Same shape as the <code>Pair</code> in {@link HelloStreams} (which is private).
+	 */
+	private static class NameAndCount {
+		public final String name;
+		public final int count;
+
+		public NameAndCount(String name, int count) {
+			this.name = name;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Generates synthetic {@link HelloStreams.Person}s.
+	 *
+	 * The generation is deterministic for a seed and parallel - every person is generated from its own index.
+	 */
+	public static class PersonGenerator {
+		private final long seed;
+		private int minAge = 0;
+		private int maxAge = 100;
+		private double ageSkew = 1.0;
+		private int hobbyCardinality = 100;
+		private int maxHobbies = 5;
+
+		public PersonGenerator(long seed) {
+			this.seed = seed;
+		}
+
+		/**
+		 * Sets the range of the ages.
+		 *
+		 * @param minAge the minimum age (inclusive)
+		 * @param maxAge the maximum age (exclusive)
+		 * @return this generator
+		 */
+		public PersonGenerator ageRange(int minAge, int maxAge) {
+			this.minAge = minAge;
+			this.maxAge = maxAge;
+			return this;
+		}
+
+		/**
+		 * Sets the skew of the ages.
+		 *
+		 * @param ageSkew 1.0 for uniform ages, larger values make young ages more frequent (age = min + (max - min) * random<sup>ageSkew</sup>)
+		 * @return this generator
+		 */
+		public PersonGenerator ageSkew(double ageSkew) {
+			this.ageSkew = ageSkew;
+			return this;
+		}
+
+		/**
+		 * Sets the number of different hobbies.
+		 *
+		 * @param hobbyCardinality the number of different hobbies
+		 * @return this generator
+		 */
+		public PersonGenerator hobbyCardinality(int hobbyCardinality) {
+			this.hobbyCardinality = hobbyCardinality;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of hobbies per person.
+		 *
+		 * @param maxHobbies the maximum number of hobbies (inclusive)
+		 * @return this generator
+		 */
+		public PersonGenerator maxHobbies(int maxHobbies) {
+			this.maxHobbies = maxHobbies;
+			return this;
+		}
+
+		/**
+		 * Generates the specified number of persons.
+		 *
+		 * @param size the number of persons
+		 * @return the unmodifiable list of persons
+		 */
+		public List<HelloStreams.Person> generate(int size) {
+			String[] hobbies = IntStream.range(0, hobbyCardinality)
+				.mapToObj(i -> "Hobby" + i)
+				.toArray(String[]::new);
+
+			HelloStreams.Person[] persons = new HelloStreams.Person[size];
+			IntStream.range(0, size)
+				.parallel()
+				.forEach(index -> persons[index] = generate(index, hobbies));
+			return Collections.unmodifiableList(Arrays.asList(persons));
+		}
+
+		private HelloStreams.Person generate(int index, String[] hobbies) {
+			SplittableRandom random = new SplittableRandom(seed * 31 + index);
+			int age = minAge + (int) ((maxAge - minAge) * Math.pow(random.nextDouble(), ageSkew));
+
+			String[] personHobbies = new String[random.nextInt(maxHobbies + 1)];
+			for (int i = 0; i < personHobbies.length; i++) {
+				personHobbies[i] = hobbies[random.nextInt(hobbies.length)];
+			}
+			return new HelloStreams.Person("Person" + index, age, Arrays.asList(personHobbies));
+		}
+	}
+}
@@ -0,0 +1,262 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Immutable collection of {@link HelloStreams.Person}s with a sorted age index.
+ *
+ * A {@link Query} on the age (equality or range) is answered by binary search in the index - O(log n + k) instead of a scan over all persons.
+ * Conditions on other fields are evaluated with a scan over the persons that match the age range.
+ * {@link #list(Query)} and {@link #count(Query)} scan large ranges in parallel, {@link #stream(Query)} is always sequential.
+ *
+ * <pre>
+ * IndexedPersonCollection persons = new IndexedPersonCollection(PERSONS);
+ * List&lt;Person&gt; result = persons.list(Query.ageEquals(25));
+ * List&lt;Person&gt; old = persons.list(Query.ageAtLeast(40).and(person -&gt; person.hobbies.contains("Karate")));
+ * </pre>
+ */
+public class IndexedPersonCollection {
+
+	private static final int PARALLEL_THRESHOLD = 10000;
+
+	private final HelloStreams.Person[] persons;
+	private final int[] ages;
+
+	/**
+	 * Creates an indexed copy of the specified persons.
+	 *
+	 * @param persons the persons
+	 */
+	public IndexedPersonCollection(Collection<HelloStreams.Person> persons) {
+		this.persons = persons.toArray(new HelloStreams.Person[0]);
+		// stable sort - persons with the same age keep their order
+		Arrays.parallelSort(this.persons, (person1, person2) -> Integer.compare(person1.age, person2.age));
+		this.ages = new int[this.persons.length];
+		for (int i = 0; i < this.persons.length; i++) {
+			ages[i] = this.persons[i].age;
+		}
+	}
+
+	public int size() {
+		return persons.length;
+	}
+
+	/**
+	 * Returns the persons matching the query.
+	 *
+	 * @param query the query
+	 * @return the sequential stream of matching persons, sorted by age
+	 */
+	public Stream<HelloStreams.Person> stream(Query query) {
+		return stream(query, false);
+	}
+
+	/**
+	 * Returns the persons matching the query, scanning large ranges in parallel.
+	 *
+	 * @param query the query
+	 * @return the list of matching persons, sorted by age
+	 */
+	public List<HelloStreams.Person> list(Query query) {
+		return stream(query, true).collect(Collectors.toList());
+	}
+
+	/**
+	 * Counts the persons matching the query - O(log n) if the query has only age conditions.
+	 *
+	 * @param query the query
+	 * @return the number of matching persons
+	 */
+	public long count(Query query) {
+		if (query.predicate == null) {
+			return Math.max(0, upperBound(query.maxAge) - lowerBound(query.minAge));
+		}
+		return stream(query, true).count();
+	}
+
+	/**
+	 * Returns the distinct ages in the collection in ascending order.
+	 *
+	 * @return the stream of ages
+	 */
+	public IntStream ages() {
+		// the ages are sorted - only compare with the previous age instead of distinct() (which boxes into a hash set)
+		return IntStream.range(0, ages.length)
+			.filter(index -> index == 0 || ages[index] != ages[index - 1])
+			.map(index -> ages[index]);
+	}
+
+	private Stream<HelloStreams.Person> stream(Query query, boolean parallelScan) {
+		int fromIndex = lowerBound(query.minAge);
+		int toIndex = upperBound(query.maxAge);
+		if (fromIndex >= toIndex) {
+			return Stream.empty();
+		}
+
+		Stream<HelloStreams.Person> stream = Arrays.stream(persons, fromIndex, toIndex);
+		if (query.predicate == null) {
+			return stream;
+		}
+		if (parallelScan && toIndex - fromIndex >= PARALLEL_THRESHOLD) {
+			stream = stream.parallel();
+		}
+		return stream.filter(query.predicate);
+	}
+
+	/**
+	 * Returns the index of the first person with an age &gt;= the specified age.
+	 */
+	private int lowerBound(int age) {
+		int low = 0;
+		int high = ages.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (ages[mid] < age) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index after the last person with an age &lt;= the specified age.
+	 */
+	private int upperBound(int age) {
+		int low = 0;
+		int high = ages.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (ages[mid] <= age) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Query on an {@link IndexedPersonCollection}.
+	 *
+	 * Age conditions are kept as range (so they can be answered by the index), all other conditions as {@link Predicate}.
+	 */
+	public static class Query {
+		private final int minAge;
+		private final int maxAge;
+		private final Predicate<HelloStreams.Person> predicate;
+
+		private Query(int minAge, int maxAge, Predicate<HelloStreams.Person> predicate) {
+			this.minAge = minAge;
+			this.maxAge = maxAge;
+			this.predicate = predicate;
+		}
+
+		/**
+		 * Matches all persons.
+		 *
+		 * @return the query
+		 */
+		public static Query all() {
+			return new Query(Integer.MIN_VALUE, Integer.MAX_VALUE, null);
+		}
+
+		/**
+		 * Matches <code>person.age == age</code> using the index.
+		 *
+		 * @param age the age
+		 * @return the query
+		 */
+		public static Query ageEquals(int age) {
+			return new Query(age, age, null);
+		}
+
+		/**
+		 * Matches <code>person.age &gt;= minAge &amp;&amp; person.age &lt;= maxAge</code> using the index.
+		 *
+		 * @param minAge the minimum age (inclusive)
+		 * @param maxAge the maximum age (inclusive)
+		 * @return the query
+		 */
+		public static Query ageBetween(int minAge, int maxAge) {
+			return new Query(minAge, maxAge, null);
+		}
+
+		/**
+		 * Matches <code>person.age &gt;= minAge</code> using the index.
+		 *
+		 * @param minAge the minimum age (inclusive)
+		 * @return the query
+		 */
+		public static Query ageAtLeast(int minAge) {
+			return new Query(minAge, Integer.MAX_VALUE, null);
+		}
+
+		/**
+		 * Matches <code>person.age &lt; maxAge</code> using the index.
+		 *
+		 * @param maxAge the maximum age (exclusive)
+		 * @return the query
+		 */
+		public static Query ageLessThan(int maxAge) {
+			return maxAge == Integer.MIN_VALUE ? new Query(0, -1, null) : new Query(Integer.MIN_VALUE, maxAge - 1, null);
+		}
+
+		/**
+		 * Matches persons with an arbitrary predicate - evaluated by scanning.
+		 *
+		 * @param predicate the predicate
+		 * @return the query
+		 */
+		public static Query where(Predicate<HelloStreams.Person> predicate) {
+			return new Query(Integer.MIN_VALUE, Integer.MAX_VALUE, predicate);
+		}
+
+		/**
+		 * Combines this query with another query - the age ranges are intersected.
+		 *
+		 * @param other the other query
+		 * @return the combined query
+		 */
+		public Query and(Query other) {
+			Predicate<HelloStreams.Person> combinedPredicate;
+			if (predicate == null) {
+				combinedPredicate = other.predicate;
+			} else if (other.predicate == null) {
+				combinedPredicate = predicate;
+			} else {
+				combinedPredicate = predicate.and(other.predicate);
+			}
+			return new Query(Math.max(minAge, other.minAge), Math.min(maxAge, other.maxAge), combinedPredicate);
+		}
+
+		/**
+		 * Combines this query with a predicate that is evaluated by scanning.
+		 *
+		 * @param other the predicate
+		 * @return the combined query
+		 */
+		public Query and(Predicate<HelloStreams.Person> other) {
+			return and(where(other));
+		}
+
+		/**
+		 * Returns whether this query can be answered by the index alone.
+		 *
+		 * @return <code>true</code> if the query has only age conditions
+		 */
+		public boolean isIndexOnly() {
+			return predicate == null;
+		}
+
+		@Override
+		public String toString() {
+			return "Query [minAge=" + minAge + ", maxAge=" + maxAge + ", predicate=" + (predicate == null ? "none" : "scan") + "]";
+		}
+	}
+}
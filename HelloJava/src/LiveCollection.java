@@ -0,0 +1,598 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Mutable collection that maintains registered aggregations incrementally.
+ *
+ * Instead of recomputing <code>groupingBy()</code>, <code>partitioningBy()</code>, <code>summingInt()</code> ... over the full collection
+ * after every change, every {@link Aggregation} is updated when an element is added, removed or updated:
+ * counts and sums in O(1), groups and partitions in O(1) (hashing), min/max in O(log n).
+ *
+ * Writers are serialized, readers see a consistent {@link Snapshot} of all aggregations.
+ * Reading does not copy the members of groups: the results are read-only views of chunked member lists,
+ * a write after a read only copies the chunk it changes (see {@link #groupingBy(Function)}).
+ * So readers hold the lock only for a short time, independent of the number of elements.
+ * Elements are compared by identity.
+ *
+ * <pre>
+ * LiveCollection&lt;Person&gt; persons = new LiveCollection&lt;&gt;();
+ * Aggregation&lt;Person, Map&lt;Integer, Long&gt;&gt; countByAge = persons.register(LiveCollection.groupingByCounting(person -&gt; person.age));
+ * persons.add(new Person("Alice", 51, Arrays.asList("Hiking")));
+ * System.out.println(persons.get(countByAge));
+ * </pre>
+ *
+ * @param <T> the type of the elements
+ */
+public class LiveCollection<T> {
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Set<T> elements = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final List<Aggregation<T, ?>> aggregations = new ArrayList<>();
+
+	/**
+	 * Registers an aggregation and initializes it with the current elements.
+	 *
+	 * @param aggregation the aggregation to register
+	 * @return the registered aggregation (to be used in {@link #get(Aggregation)} and {@link Snapshot#get(Aggregation)})
+	 */
+	public <A extends Aggregation<T, ?>> A register(A aggregation) {
+		lock.writeLock().lock();
+		try {
+			for (T element : elements) {
+				aggregation.add(element);
+			}
+			aggregations.add(aggregation);
+			return aggregation;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds an element.
+	 *
+	 * @param element the element to add
+	 * @return <code>true</code> if the element was added, <code>false</code> if it was already in the collection
+	 */
+	public boolean add(T element) {
+		lock.writeLock().lock();
+		try {
+			if (!elements.add(element)) {
+				return false;
+			}
+			for (Aggregation<T, ?> aggregation : aggregations) {
+				aggregation.add(element);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes an element.
+	 *
+	 * @param element the element to remove
+	 * @return <code>true</code> if the element was removed, <code>false</code> if it was not in the collection
+	 */
+	public boolean remove(T element) {
+		lock.writeLock().lock();
+		try {
+			if (!elements.remove(element)) {
+				return false;
+			}
+			for (Aggregation<T, ?> aggregation : aggregations) {
+				aggregation.remove(element);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces an element atomically - readers see either the old or the new element.
+	 *
+	 * @param oldElement the element to remove
+	 * @param newElement the element to add
+	 * @return <code>true</code> if the element was replaced, <code>false</code> if the old element was not in the collection
+	 */
+	public boolean update(T oldElement, T newElement) {
+		lock.writeLock().lock();
+		try {
+			if (!elements.contains(oldElement)) {
+				return false;
+			}
+			if (oldElement != newElement && elements.contains(newElement)) {
+				throw new IllegalArgumentException("New element is already in the collection: " + newElement);
+			}
+			elements.remove(oldElement);
+			elements.add(newElement);
+			for (Aggregation<T, ?> aggregation : aggregations) {
+				aggregation.remove(oldElement);
+				aggregation.add(newElement);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return elements.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the current result of a single aggregation.
+	 *
+	 * @param aggregation the registered aggregation
+	 * @return the result
+	 */
+	public <R> R get(Aggregation<T, R> aggregation) {
+		lock.readLock().lock();
+		try {
+			return aggregation.result();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the results of all registered aggregations at the same point in time.
+	 *
+	 * @return the {@link Snapshot}
+	 */
+	public Snapshot<T> snapshot() {
+		lock.readLock().lock();
+		try {
+			Map<Aggregation<T, ?>, Object> results = new IdentityHashMap<>();
+			for (Aggregation<T, ?> aggregation : aggregations) {
+				results.put(aggregation, aggregation.result());
+			}
+			return new Snapshot<>(elements.size(), results);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The results of all aggregations of a {@link LiveCollection} at the same point in time.
+	 *
+	 * @param <T> the type of the elements
+	 */
+	public static class Snapshot<T> {
+		private final int size;
+		private final Map<Aggregation<T, ?>, Object> results;
+
+		private Snapshot(int size, Map<Aggregation<T, ?>, Object> results) {
+			this.size = size;
+			this.results = results;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		@SuppressWarnings("unchecked")
+		public <R> R get(Aggregation<T, R> aggregation) {
+			if (!results.containsKey(aggregation)) {
+				throw new IllegalArgumentException("Aggregation not registered: " + aggregation);
+			}
+			return (R) results.get(aggregation);
+		}
+	}
+
+	/**
+	 * Aggregation that can be maintained incrementally.
+	 *
+	 * Implementations do not need to be thread safe - {@link LiveCollection} calls them under a lock.
+	 * {@link #add(Object)} and {@link #remove(Object)} are called under the write lock,
+	 * {@link #result()} under the read lock - possibly by several readers at the same time.
+	 *
+	 * @param <T> the type of the elements
+	 * @param <R> the type of the result
+	 */
+	public interface Aggregation<T, R> {
+		void add(T element);
+
+		void remove(T element);
+
+		/**
+		 * Returns the current result, must not change when the aggregation is updated later.
+		 *
+		 * @return the result (immutable or a copy)
+		 */
+		R result();
+	}
+
+	/**
+	 * Counts the elements - similar to <code>Collectors.counting()</code>.
+	 *
+	 * @return the aggregation
+	 */
+	public static <T> Aggregation<T, Long> counting() {
+		return summingLong(element -> 1);
+	}
+
+	/**
+	 * Sums an int property of the elements - similar to <code>Collectors.summingInt()</code>, but without overflow.
+	 *
+	 * @param mapper maps an element to the value to sum
+	 * @return the aggregation
+	 */
+	public static <T> Aggregation<T, Long> summingInt(ToIntFunction<? super T> mapper) {
+		return summingLong(element -> mapper.applyAsInt(element));
+	}
+
+	/**
+	 * Sums a long property of the elements - similar to <code>Collectors.summingLong()</code>.
+	 *
+	 * @param mapper maps an element to the value to sum
+	 * @return the aggregation
+	 */
+	public static <T> Aggregation<T, Long> summingLong(ToLongFunction<? super T> mapper) {
+		return new Aggregation<T, Long>() {
+			private long sum;
+
+			@Override
+			public void add(T element) {
+				sum += mapper.applyAsLong(element);
+			}
+
+			@Override
+			public void remove(T element) {
+				sum -= mapper.applyAsLong(element);
+			}
+
+			@Override
+			public Long result() {
+				return sum;
+			}
+		};
+	}
+
+	/**
+	 * Counts the elements per key - similar to <code>Collectors.groupingBy(classifier, Collectors.counting())</code>.
+	 *
+	 * The result is a copy of the counts - O(number of keys).
+	 *
+	 * @param classifier maps an element to its key
+	 * @return the aggregation
+	 */
+	public static <T, K> Aggregation<T, Map<K, Long>> groupingByCounting(Function<? super T, ? extends K> classifier) {
+		return new Aggregation<T, Map<K, Long>>() {
+			private final Map<K, Long> counts = new HashMap<>();
+
+			@Override
+			public void add(T element) {
+				counts.merge(classifier.apply(element), 1L, Long::sum);
+			}
+
+			@Override
+			public void remove(T element) {
+				counts.computeIfPresent(classifier.apply(element), (key, count) -> count == 1 ? null : count - 1);
+			}
+
+			@Override
+			public Map<K, Long> result() {
+				return Collections.unmodifiableMap(new HashMap<>(counts));
+			}
+		};
+	}
+
+	/**
+	 * Maintains the members of every group - similar to <code>Collectors.groupingBy(classifier)</code>.
+	 *
+	 * The members of every group are in the order they were added, stored in chunks of {@value MemberList#CHUNK_SIZE} elements.
+	 * The result is built from read-only views of the groups - O(number of groups) for the first read after a write, O(1) afterwards.
+	 * Updates are O(1) amortized without reads in between.
+	 * The first write to a group after a read copies the changed chunk and the chunk directory of this group -
+	 * O({@value MemberList#CHUNK_SIZE} + group size / {@value MemberList#CHUNK_SIZE}), about 3000 references for a group of 2 million elements.
+	 *
+	 * @param classifier maps an element to its key
+	 * @return the aggregation
+	 */
+	public static <T, K> Aggregation<T, Map<K, List<T>>> groupingBy(Function<? super T, ? extends K> classifier) {
+		return new Aggregation<T, Map<K, List<T>>>() {
+			private final Map<K, MemberList<T>> groups = new HashMap<>();
+			private volatile Map<K, List<T>> result;
+
+			@Override
+			public void add(T element) {
+				result = null;
+				groups.computeIfAbsent(classifier.apply(element), key -> new MemberList<>()).add(element);
+			}
+
+			@Override
+			public void remove(T element) {
+				K key = classifier.apply(element);
+				MemberList<T> group = groups.get(key);
+				if (group != null && group.remove(element)) {
+					result = null;
+					if (group.isEmpty()) {
+						groups.remove(key);
+					}
+				}
+			}
+
+			@Override
+			public Map<K, List<T>> result() {
+				Map<K, List<T>> currentResult = result;
+				if (currentResult == null) {
+					Map<K, List<T>> views = new HashMap<>();
+					for (Map.Entry<K, MemberList<T>> entry : groups.entrySet()) {
+						views.put(entry.getKey(), entry.getValue().view());
+					}
+					currentResult = Collections.unmodifiableMap(views);
+					result = currentResult;
+				}
+				return currentResult;
+			}
+		};
+	}
+
+	/**
+	 * Maintains the members of both partitions - similar to <code>Collectors.partitioningBy(predicate)</code>.
+	 *
+	 * The predicate must always return the same value for the same element.
+	 *
+	 * @param predicate the predicate to partition the elements
+	 * @return the aggregation, the result always contains the keys <code>true</code> and <code>false</code>
+	 */
+	public static <T> Aggregation<T, Map<Boolean, List<T>>> partitioningBy(Predicate<? super T> predicate) {
+		Aggregation<T, Map<Boolean, List<T>>> groups = groupingBy(element -> predicate.test(element));
+		return new Aggregation<T, Map<Boolean, List<T>>>() {
+			@Override
+			public void add(T element) {
+				groups.add(element);
+			}
+
+			@Override
+			public void remove(T element) {
+				groups.remove(element);
+			}
+
+			@Override
+			public Map<Boolean, List<T>> result() {
+				Map<Boolean, List<T>> result = new HashMap<>(groups.result());
+				result.putIfAbsent(false, Collections.emptyList());
+				result.putIfAbsent(true, Collections.emptyList());
+				return Collections.unmodifiableMap(result);
+			}
+		};
+	}
+
+	/**
+	 * Maintains the maximum of an int property of the elements - O(log n) updates.
+	 *
+	 * @param mapper maps an element to the value
+	 * @return the aggregation, empty if the collection is empty
+	 */
+	public static <T> Aggregation<T, OptionalInt> maxInt(ToIntFunction<? super T> mapper) {
+		return new Aggregation<T, OptionalInt>() {
+			private final TreeMap<Integer, Integer> valueCounts = new TreeMap<>();
+
+			@Override
+			public void add(T element) {
+				valueCounts.merge(mapper.applyAsInt(element), 1, Integer::sum);
+			}
+
+			@Override
+			public void remove(T element) {
+				valueCounts.computeIfPresent(mapper.applyAsInt(element), (value, count) -> count == 1 ? null : count - 1);
+			}
+
+			@Override
+			public OptionalInt result() {
+				return valueCounts.isEmpty() ? OptionalInt.empty() : OptionalInt.of(valueCounts.lastKey());
+			}
+		};
+	}
+
+	/**
+	 * Maintains an element with the maximum of an int property - similar to <code>Stream.max()</code>, O(log n) updates.
+	 *
+	 * @param mapper maps an element to the value
+	 * @return the aggregation, empty if the collection is empty
+	 */
+	public static <T> Aggregation<T, Optional<T>> maxBy(ToIntFunction<? super T> mapper) {
+		return new Aggregation<T, Optional<T>>() {
+			private final TreeMap<Integer, Set<T>> elementsByValue = new TreeMap<>();
+
+			@Override
+			public void add(T element) {
+				elementsByValue.computeIfAbsent(mapper.applyAsInt(element), value -> Collections.newSetFromMap(new IdentityHashMap<>())).add(element);
+			}
+
+			@Override
+			public void remove(T element) {
+				int value = mapper.applyAsInt(element);
+				Set<T> sameValueElements = elementsByValue.get(value);
+				if (sameValueElements != null) {
+					sameValueElements.remove(element);
+					if (sameValueElements.isEmpty()) {
+						elementsByValue.remove(value);
+					}
+				}
+			}
+
+			@Override
+			public Optional<T> result() {
+				return elementsByValue.isEmpty() ? Optional.empty() : Optional.of(elementsByValue.lastEntry().getValue().iterator().next());
+			}
+		};
+	}
+
+	/**
+	 * The members of a group in the order they were added, with O(1) amortized add and remove.
+	 *
+	 * The members are stored in chunks of {@value #CHUNK_SIZE} elements.
+	 * Removed members leave a {@link #REMOVED} marker, the chunks are rebuilt when more than half of the elements are markers.
+	 * {@link #view()} shares the chunks with a read-only {@link View} and starts a new epoch.
+	 * Chunks (and the chunk directory) of an older epoch are never modified again - a write copies them first.
+	 */
+	private static class MemberList<T> {
+		public static final int CHUNK_SIZE = 1024;
+
+		private static final Object REMOVED = new Object();
+
+		private final Map<T, Integer> positions = new IdentityHashMap<>();
+		private Chunk[] chunks = new Chunk[4];
+		private long chunksEpoch;
+		private int length;
+		private long epoch;
+
+		public void add(T element) {
+			int chunkIndex = length / CHUNK_SIZE;
+			if (length % CHUNK_SIZE == 0) {
+				prepareChunks(chunkIndex + 1);
+				chunks[chunkIndex] = new Chunk(new Object[CHUNK_SIZE], epoch);
+			}
+			writableChunk(chunkIndex)[length % CHUNK_SIZE] = element;
+			positions.put(element, length);
+			length++;
+		}
+
+		public boolean remove(T element) {
+			Integer position = positions.remove(element);
+			if (position == null) {
+				return false;
+			}
+			writableChunk(position / CHUNK_SIZE)[position % CHUNK_SIZE] = REMOVED;
+			if (positions.size() < length / 2) {
+				compact();
+			}
+			return true;
+		}
+
+		public boolean isEmpty() {
+			return positions.isEmpty();
+		}
+
+		public List<T> view() {
+			epoch++; // all current chunks are shared from now on
+			return new View<>(chunks, length, positions.size());
+		}
+
+		private Object[] writableChunk(int chunkIndex) {
+			Chunk chunk = chunks[chunkIndex];
+			if (chunk.epoch != epoch) {
+				prepareChunks(chunks.length);
+				chunk = new Chunk(chunk.elements.clone(), epoch);
+				chunks[chunkIndex] = chunk;
+			}
+			return chunk.elements;
+		}
+
+		private void prepareChunks(int minCapacity) {
+			if (chunksEpoch != epoch || minCapacity > chunks.length) {
+				int capacity = minCapacity > chunks.length ? Math.max(minCapacity, chunks.length * 2) : chunks.length;
+				chunks = Arrays.copyOf(chunks, capacity);
+				chunksEpoch = epoch;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void compact() {
+			Chunk[] oldChunks = chunks;
+			int oldLength = length;
+			chunks = new Chunk[Math.max(4, (positions.size() + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+			chunksEpoch = epoch;
+			length = 0;
+			for (int i = 0; i < oldLength; i++) {
+				Object member = oldChunks[i / CHUNK_SIZE].elements[i % CHUNK_SIZE];
+				if (member != REMOVED) {
+					if (length % CHUNK_SIZE == 0) {
+						chunks[length / CHUNK_SIZE] = new Chunk(new Object[CHUNK_SIZE], epoch);
+					}
+					chunks[length / CHUNK_SIZE].elements[length % CHUNK_SIZE] = member;
+					positions.put((T) member, length);
+					length++;
+				}
+			}
+		}
+
+		private static class Chunk {
+			public final Object[] elements;
+			public final long epoch;
+
+			public Chunk(Object[] elements, long epoch) {
+				this.elements = elements;
+				this.epoch = epoch;
+			}
+		}
+
+		/**
+		 * Read-only view of the members at the time of {@link MemberList#view()}.
+		 *
+		 * The shared chunks are never modified again, the markers are skipped when the view is first read (outside of the lock).
+		 */
+		private static class View<T> extends AbstractList<T> implements RandomAccess {
+			private final Chunk[] chunks;
+			private final int length;
+			private final int size;
+			private volatile Object[] compacted;
+
+			private View(Chunk[] chunks, int length, int size) {
+				this.chunks = chunks;
+				this.length = length;
+				this.size = size;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public T get(int index) {
+				if (index < 0 || index >= size) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+				}
+				if (length == size) {
+					return (T) chunks[index / CHUNK_SIZE].elements[index % CHUNK_SIZE];
+				}
+				return (T) compacted()[index];
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			private Object[] compacted() {
+				Object[] result = compacted;
+				if (result == null) {
+					result = new Object[size];
+					int target = 0;
+					for (int i = 0; i < length; i++) {
+						Object member = chunks[i / CHUNK_SIZE].elements[i % CHUNK_SIZE];
+						if (member != REMOVED) {
+							result[target++] = member;
+						}
+					}
+					compacted = result;
+				}
+				return result;
+			}
+		}
+	}
+}
@@ -0,0 +1,359 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+
+/**
+ * Grouping collectors for <code>int</code> and <code>long</code> keys that produce groups in ascending key order.
+ *
+ * <code>Collectors.groupingBy(classifier, TreeMap::new, toList())</code> builds a {@link java.util.TreeMap} in every parallel split
+ * and merges them by re-inserting node by node.
+ * These collectors only append (key, element) pairs into primitive arrays, concatenate them when merging splits
+ * and sort the keys once at the end with a parallel LSD radix sort.
+ * The result is a {@link SortedGroups} with the sorted distinct keys and the elements of each group as a range of one array.
+ *
+ * The radix sort is stable, so the elements of a group are in encounter order (same as <code>groupingBy()</code>).
+ */
+public class OrderedGroupingCollectors {
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int RADIX_MASK = RADIX - 1;
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	/**
+	 * Groups the elements by an int key.
+	 *
+	 * @param classifier maps an element to its key
+	 * @return the collector returning the {@link SortedGroups}
+	 */
+	public static <T> Collector<T, ?, SortedGroups<Integer, T>> groupingByInt(ToIntFunction<? super T> classifier) {
+		return Collector.of(
+				KeyBuffer<T>::new,
+				(buffer, element) -> buffer.add(classifier.applyAsInt(element), element),
+				KeyBuffer::merge,
+				buffer -> buffer.toSortedGroups(key -> (int) key));
+	}
+
+	/**
+	 * Groups the elements by a long key.
+	 *
+	 * @param classifier maps an element to its key
+	 * @return the collector returning the {@link SortedGroups}
+	 */
+	public static <T> Collector<T, ?, SortedGroups<Long, T>> groupingByLong(ToLongFunction<? super T> classifier) {
+		return Collector.of(
+				KeyBuffer<T>::new,
+				(buffer, element) -> buffer.add(classifier.applyAsLong(element), element),
+				KeyBuffer::merge,
+				buffer -> buffer.toSortedGroups(key -> key));
+	}
+
+	/**
+	 * Sorts the keys with a stable LSD radix sort and returns the permutation.
+	 *
+	 * Passes where all keys have the same digit are skipped, so small key ranges (for example ages) need only one or two passes.
+	 * Large arrays are sorted in parallel chunks: every chunk builds its own histogram, the prefix sums give every (chunk, digit)
+	 * its own range of the output, so the chunks scatter in parallel without synchronization.
+	 *
+	 * @param keys the keys to sort, sorted in place
+	 * @param size the number of keys
+	 * @return the original index of every sorted key
+	 */
+	private static int[] radixSort(long[] keys, int size) {
+		long[] sourceKeys = keys;
+		int[] sourceIndexes = new int[size];
+		for (int i = 0; i < size; i++) {
+			sourceIndexes[i] = i;
+		}
+		long[] targetKeys = new long[size];
+		int[] targetIndexes = new int[size];
+
+		int chunkCount = size < PARALLEL_THRESHOLD ? 1 : ForkJoinPool.getCommonPoolParallelism() * 4;
+		int chunkSize = (size + chunkCount - 1) / Math.max(1, chunkCount);
+
+		for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+			final int digitShift = shift;
+			final long signFlip = shift + RADIX_BITS >= 64 ? Long.MIN_VALUE : 0; // signed order - flip the sign bit in the last digit
+			final long[] passSourceKeys = sourceKeys;
+			final int[] passSourceIndexes = sourceIndexes;
+			final long[] passTargetKeys = targetKeys;
+			final int[] passTargetIndexes = targetIndexes;
+
+			int[][] histograms = new int[chunkCount][];
+			parallelFor(chunkCount, chunk -> {
+				int[] histogram = new int[RADIX];
+				int end = Math.min(size, (chunk + 1) * chunkSize);
+				for (int i = chunk * chunkSize; i < end; i++) {
+					histogram[digit(passSourceKeys[i], digitShift, signFlip)]++;
+				}
+				histograms[chunk] = histogram;
+			});
+
+			if (isSingleDigit(histograms, size)) {
+				continue;
+			}
+
+			int offset = 0;
+			for (int digit = 0; digit < RADIX; digit++) {
+				for (int chunk = 0; chunk < chunkCount; chunk++) {
+					int count = histograms[chunk][digit];
+					histograms[chunk][digit] = offset;
+					offset += count;
+				}
+			}
+
+			parallelFor(chunkCount, chunk -> {
+				int[] offsets = histograms[chunk];
+				int end = Math.min(size, (chunk + 1) * chunkSize);
+				for (int i = chunk * chunkSize; i < end; i++) {
+					int target = offsets[digit(passSourceKeys[i], digitShift, signFlip)]++;
+					passTargetKeys[target] = passSourceKeys[i];
+					passTargetIndexes[target] = passSourceIndexes[i];
+				}
+			});
+
+			sourceKeys = passTargetKeys;
+			sourceIndexes = passTargetIndexes;
+			targetKeys = passSourceKeys;
+			targetIndexes = passSourceIndexes;
+		}
+
+		if (sourceKeys != keys) {
+			System.arraycopy(sourceKeys, 0, keys, 0, size);
+		}
+		return sourceIndexes;
+	}
+
+	private static int digit(long key, int shift, long signFlip) {
+		return (int) (((key ^ signFlip) >>> shift) & RADIX_MASK);
+	}
+
+	private static boolean isSingleDigit(int[][] histograms, int size) {
+		for (int digit = 0; digit < RADIX; digit++) {
+			int count = 0;
+			for (int[] histogram : histograms) {
+				count += histogram[digit];
+			}
+			if (count == size) {
+				return true;
+			}
+			if (count > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void parallelFor(int count, IntConsumer action) {
+		if (count == 1) {
+			action.accept(0);
+		} else {
+			IntStream.range(0, count).parallel().forEach(action);
+		}
+	}
+
+	private static class KeyBuffer<T> {
+		private long[] keys = new long[16];
+		private Object[] elements = new Object[16];
+		private int size;
+
+		public void add(long key, T element) {
+			if (size == keys.length) {
+				grow(size + 1);
+			}
+			keys[size] = key;
+			elements[size] = element;
+			size++;
+		}
+
+		public KeyBuffer<T> merge(KeyBuffer<T> other) {
+			if (size + other.size > keys.length) {
+				grow(size + other.size);
+			}
+			System.arraycopy(other.keys, 0, keys, size, other.size);
+			System.arraycopy(other.elements, 0, elements, size, other.size);
+			size += other.size;
+			return this;
+		}
+
+		public <K> SortedGroups<K, T> toSortedGroups(LongFunction<K> keyConverter) {
+			int[] indexes = radixSort(keys, size);
+
+			Object[] sortedElements = new Object[size];
+			int groupCount = 0;
+			for (int i = 0; i < size; i++) {
+				sortedElements[i] = elements[indexes[i]];
+				if (i == 0 || keys[i] != keys[i - 1]) {
+					groupCount++;
+				}
+			}
+
+			long[] groupKeys = new long[groupCount];
+			int[] groupOffsets = new int[groupCount + 1];
+			int group = -1;
+			for (int i = 0; i < size; i++) {
+				if (i == 0 || keys[i] != keys[i - 1]) {
+					group++;
+					groupKeys[group] = keys[i];
+					groupOffsets[group] = i;
+				}
+			}
+			groupOffsets[groupCount] = size;
+
+			return new SortedGroups<>(groupKeys, groupOffsets, sortedElements, keyConverter);
+		}
+
+		private void grow(int minCapacity) {
+			int capacity = Math.max(minCapacity, keys.length * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			elements = Arrays.copyOf(elements, capacity);
+		}
+	}
+
+	/**
+	 * Immutable groups in ascending key order.
+	 *
+	 * The keys are stored in a sorted <code>long[]</code>, the elements of all groups in one array
+	 * with the elements of group <code>i</code> in the range <code>offset(i)</code> until <code>offset(i + 1)</code>.
+	 *
+	 * @param <K> the boxed type of the keys
+	 * @param <T> the type of the elements
+	 */
+	public static class SortedGroups<K, T> {
+		private final long[] keys;
+		private final int[] offsets;
+		private final Object[] elements;
+		private final LongFunction<K> keyConverter;
+
+		private SortedGroups(long[] keys, int[] offsets, Object[] elements, LongFunction<K> keyConverter) {
+			this.keys = keys;
+			this.offsets = offsets;
+			this.elements = elements;
+			this.keyConverter = keyConverter;
+		}
+
+		/**
+		 * Returns the number of groups.
+		 *
+		 * @return the number of groups
+		 */
+		public int size() {
+			return keys.length;
+		}
+
+		public long key(int groupIndex) {
+			return keys[groupIndex];
+		}
+
+		public int offset(int groupIndex) {
+			return offsets[groupIndex];
+		}
+
+		/**
+		 * Returns the elements of a group.
+		 *
+		 * @param groupIndex the index of the group
+		 * @return the unmodifiable list of elements
+		 */
+		@SuppressWarnings("unchecked")
+		public List<T> elements(int groupIndex) {
+			return Collections.unmodifiableList((List<T>) Arrays.asList(elements).subList(offsets[groupIndex], offsets[groupIndex + 1]));
+		}
+
+		/**
+		 * Finds the group with the specified key by binary search.
+		 *
+		 * @param key the key
+		 * @return the index of the group, or a negative value if there is no group with this key
+		 */
+		public int indexOf(long key) {
+			return Arrays.binarySearch(keys, key);
+		}
+
+		/**
+		 * Returns an unmodifiable {@link Map} view that iterates in ascending key order.
+		 *
+		 * @return the map view
+		 */
+		public Map<K, List<T>> asMap() {
+			return new AbstractMap<K, List<T>>() {
+				@Override
+				public int size() {
+					return keys.length;
+				}
+
+				@Override
+				public List<T> get(Object key) {
+					int groupIndex = groupIndexOf(key);
+					return groupIndex < 0 ? null : elements(groupIndex);
+				}
+
+				@Override
+				public boolean containsKey(Object key) {
+					return groupIndexOf(key) >= 0;
+				}
+
+				@Override
+				public Set<Map.Entry<K, List<T>>> entrySet() {
+					return new AbstractSet<Map.Entry<K, List<T>>>() {
+						@Override
+						public int size() {
+							return keys.length;
+						}
+
+						@Override
+						public Iterator<Map.Entry<K, List<T>>> iterator() {
+							return new Iterator<Map.Entry<K, List<T>>>() {
+								private int groupIndex;
+
+								@Override
+								public boolean hasNext() {
+									return groupIndex < keys.length;
+								}
+
+								@Override
+								public Map.Entry<K, List<T>> next() {
+									if (!hasNext()) {
+										throw new NoSuchElementException();
+									}
+									Map.Entry<K, List<T>> entry = new AbstractMap.SimpleImmutableEntry<>(keyConverter.apply(keys[groupIndex]), elements(groupIndex));
+									groupIndex++;
+									return entry;
+								}
+							};
+						}
+					};
+				}
+			};
+		}
+
+		private int groupIndexOf(Object key) {
+			if (!(key instanceof Number)) {
+				return -1;
+			}
+			int groupIndex = indexOf(((Number) key).longValue());
+			if (groupIndex < 0 || !keyConverter.apply(keys[groupIndex]).equals(key)) {
+				return -1;
+			}
+			return groupIndex;
+		}
+
+		@Override
+		public String toString() {
+			return asMap().toString();
+		}
+	}
+}
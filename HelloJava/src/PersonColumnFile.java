@@ -0,0 +1,565 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Compact binary columnar file format for {@link HelloStreams.Person}s.
+ *
+ * The persons are stored in blocks of rows.
+ * Every block contains an int age column, a dictionary encoded name column and the dictionary encoded hobbies
+ * (an offset array into a hobby id column).
+ * The names and hobbies are stored once in dictionaries at the end of the file.
+ *
+ * The block index at the end of the file contains the min/max age of every block,
+ * so queries on the age skip the blocks that can not contain matching persons without reading them.
+ * The blocks and dictionaries are memory mapped and the columns are read directly,
+ * names, hobbies and {@link HelloStreams.Person}s are only decoded when asked for.
+ *
+ * <pre>
+ * header:      int MAGIC, int VERSION
+ * block:       int rowCount, int ages[rowCount], int nameIds[rowCount], int hobbyOffsets[rowCount + 1], int hobbyIds[hobbyOffsets[rowCount]]
+ * dictionary:  int count, int byteOffsets[count + 1], byte utf8[byteOffsets[count]]
+ * block index: int blockCount, (long offset, long byteLength, int rowCount, int minAge, int maxAge)[blockCount]
+ * footer:      long nameDictionaryOffset, long hobbyDictionaryOffset, long blockIndexOffset, int MAGIC
+ * </pre>
+ */
+public class PersonColumnFile {
+
+	private static final int MAGIC = 0x50434f4c; // "PCOL"
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 8;
+	private static final int FOOTER_SIZE = 28;
+
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Writes a stream of persons into a column file, using {@link #DEFAULT_BLOCK_SIZE} rows per block.
+	 *
+	 * @param path the path of the file to write
+	 * @param persons the persons to write
+	 * @throws IOException if the file could not be written
+	 */
+	public static void write(Path path, Stream<HelloStreams.Person> persons) throws IOException {
+		write(path, persons, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Writes a stream of persons into a column file.
+	 *
+	 * Only one block of persons and the dictionaries are kept in memory.
+	 *
+	 * @param path the path of the file to write
+	 * @param persons the persons to write
+	 * @param blockSize the number of rows per block
+	 * @throws IOException if the file could not be written
+	 */
+	public static void write(Path path, Stream<HelloStreams.Person> persons, int blockSize) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			Writer writer = new Writer(channel, blockSize);
+			writer.writeHeader();
+			Iterator<HelloStreams.Person> iterator = persons.iterator();
+			while (iterator.hasNext()) {
+				writer.add(iterator.next());
+			}
+			writer.finish();
+		}
+	}
+
+	/**
+	 * Opens a column file for reading.
+	 *
+	 * @param path the path of the file to read
+	 * @return the {@link Reader}, must be closed
+	 * @throws IOException if the file could not be read
+	 */
+	public static Reader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new Reader(channel);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	private static class Writer {
+		private final FileChannel channel;
+		private final int blockSize;
+
+		private final Map<String, Integer> nameDictionary = new HashMap<>();
+		private final List<String> names = new ArrayList<>();
+		private final Map<String, Integer> hobbyDictionary = new HashMap<>();
+		private final List<String> hobbies = new ArrayList<>();
+
+		private final List<BlockInfo> blockInfos = new ArrayList<>();
+
+		private final int[] ages;
+		private final int[] nameIds;
+		private final int[] hobbyOffsets;
+		private int[] hobbyIds = new int[1024];
+		private int rowCount;
+
+		public Writer(FileChannel channel, int blockSize) {
+			this.channel = channel;
+			this.blockSize = blockSize;
+			ages = new int[blockSize];
+			nameIds = new int[blockSize];
+			hobbyOffsets = new int[blockSize + 1];
+		}
+
+		public void writeHeader() throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			writeFully(buffer);
+		}
+
+		public void add(HelloStreams.Person person) throws IOException {
+			ages[rowCount] = person.age;
+			nameIds[rowCount] = encode(person.name, nameDictionary, names);
+
+			int hobbyOffset = hobbyOffsets[rowCount];
+			if (hobbyOffset + person.hobbies.size() > hobbyIds.length) {
+				hobbyIds = Arrays.copyOf(hobbyIds, Math.max(hobbyIds.length * 2, hobbyOffset + person.hobbies.size()));
+			}
+			for (String hobby : person.hobbies) {
+				hobbyIds[hobbyOffset++] = encode(hobby, hobbyDictionary, hobbies);
+			}
+			hobbyOffsets[++rowCount] = hobbyOffset;
+
+			if (rowCount == blockSize) {
+				writeBlock();
+			}
+		}
+
+		public void finish() throws IOException {
+			if (rowCount > 0) {
+				writeBlock();
+			}
+
+			long nameDictionaryOffset = channel.position();
+			writeDictionary(names);
+			long hobbyDictionaryOffset = channel.position();
+			writeDictionary(hobbies);
+
+			long blockIndexOffset = channel.position();
+			ByteBuffer buffer = ByteBuffer.allocate(4 + blockInfos.size() * 28 + FOOTER_SIZE);
+			buffer.putInt(blockInfos.size());
+			for (BlockInfo blockInfo : blockInfos) {
+				buffer.putLong(blockInfo.offset);
+				buffer.putLong(blockInfo.byteLength);
+				buffer.putInt(blockInfo.rowCount);
+				buffer.putInt(blockInfo.minAge);
+				buffer.putInt(blockInfo.maxAge);
+			}
+			buffer.putLong(nameDictionaryOffset);
+			buffer.putLong(hobbyDictionaryOffset);
+			buffer.putLong(blockIndexOffset);
+			buffer.putInt(MAGIC);
+			writeFully(buffer);
+		}
+
+		private void writeBlock() throws IOException {
+			int hobbyCount = hobbyOffsets[rowCount];
+			ByteBuffer buffer = ByteBuffer.allocate(4 + rowCount * 12 + 4 + hobbyCount * 4);
+			int minAge = Integer.MAX_VALUE;
+			int maxAge = Integer.MIN_VALUE;
+
+			buffer.putInt(rowCount);
+			for (int i = 0; i < rowCount; i++) {
+				buffer.putInt(ages[i]);
+				minAge = Math.min(minAge, ages[i]);
+				maxAge = Math.max(maxAge, ages[i]);
+			}
+			for (int i = 0; i < rowCount; i++) {
+				buffer.putInt(nameIds[i]);
+			}
+			for (int i = 0; i <= rowCount; i++) {
+				buffer.putInt(hobbyOffsets[i]);
+			}
+			for (int i = 0; i < hobbyCount; i++) {
+				buffer.putInt(hobbyIds[i]);
+			}
+
+			blockInfos.add(new BlockInfo(channel.position(), buffer.position(), rowCount, minAge, maxAge));
+			writeFully(buffer);
+			rowCount = 0;
+		}
+
+		private void writeDictionary(List<String> values) throws IOException {
+			int byteCount = 0;
+			List<byte[]> encodedValues = new ArrayList<>(values.size());
+			for (String value : values) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				encodedValues.add(bytes);
+				byteCount += bytes.length;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(4 + (encodedValues.size() + 1) * 4 + byteCount);
+			buffer.putInt(encodedValues.size());
+			int byteOffset = 0;
+			buffer.putInt(byteOffset);
+			for (byte[] bytes : encodedValues) {
+				byteOffset += bytes.length;
+				buffer.putInt(byteOffset);
+			}
+			for (byte[] bytes : encodedValues) {
+				buffer.put(bytes);
+			}
+			writeFully(buffer);
+		}
+
+		private void writeFully(ByteBuffer buffer) throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		private static int encode(String value, Map<String, Integer> dictionary, List<String> values) {
+			Integer id = dictionary.get(value);
+			if (id == null) {
+				id = values.size();
+				dictionary.put(value, id);
+				values.add(value);
+			}
+			return id;
+		}
+	}
+
+	private static class BlockInfo {
+		public final long offset;
+		public final long byteLength;
+		public final int rowCount;
+		public final int minAge;
+		public final int maxAge;
+
+		public BlockInfo(long offset, long byteLength, int rowCount, int minAge, int maxAge) {
+			this.offset = offset;
+			this.byteLength = byteLength;
+			this.rowCount = rowCount;
+			this.minAge = minAge;
+			this.maxAge = maxAge;
+		}
+	}
+
+	/**
+	 * Reads a column file.
+	 *
+	 * The block index is read when the file is opened.
+	 * The dictionaries are memory mapped and their values decoded when asked for, the blocks are memory mapped when they are accessed.
+	 * A {@link Reader} can be used by multiple threads.
+	 */
+	public static class Reader implements AutoCloseable {
+		private final FileChannel channel;
+		private final Dictionary names;
+		private final Dictionary hobbies;
+		private final BlockInfo[] blockInfos;
+		private final long rowCount;
+
+		private Reader(FileChannel channel) throws IOException {
+			this.channel = channel;
+
+			long size = channel.size();
+			if (size < HEADER_SIZE + FOOTER_SIZE) {
+				throw new IOException("Not a person column file: too small");
+			}
+			ByteBuffer header = map(0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a person column file: wrong magic");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported person column file version: " + version);
+			}
+
+			ByteBuffer footer = map(size - FOOTER_SIZE, FOOTER_SIZE);
+			long nameDictionaryOffset = footer.getLong();
+			long hobbyDictionaryOffset = footer.getLong();
+			long blockIndexOffset = footer.getLong();
+			if (footer.getInt() != MAGIC) {
+				throw new IOException("Not a person column file: wrong footer magic");
+			}
+
+			names = new Dictionary(map(nameDictionaryOffset, hobbyDictionaryOffset - nameDictionaryOffset), false); // names are mostly unique
+			hobbies = new Dictionary(map(hobbyDictionaryOffset, blockIndexOffset - hobbyDictionaryOffset), true);
+
+			ByteBuffer blockIndex = map(blockIndexOffset, size - FOOTER_SIZE - blockIndexOffset);
+			blockInfos = new BlockInfo[blockIndex.getInt()];
+			long totalRowCount = 0;
+			for (int i = 0; i < blockInfos.length; i++) {
+				blockInfos[i] = new BlockInfo(blockIndex.getLong(), blockIndex.getLong(), blockIndex.getInt(), blockIndex.getInt(), blockIndex.getInt());
+				totalRowCount += blockInfos[i].rowCount;
+			}
+			rowCount = totalRowCount;
+		}
+
+		public long getRowCount() {
+			return rowCount;
+		}
+
+		public int getBlockCount() {
+			return blockInfos.length;
+		}
+
+		public String getName(int nameId) {
+			return names.get(nameId);
+		}
+
+		public String getHobby(int hobbyId) {
+			return hobbies.get(hobbyId);
+		}
+
+		public int getNameDictionarySize() {
+			return names.size();
+		}
+
+		public int getHobbyDictionarySize() {
+			return hobbies.size();
+		}
+
+		public int getBlockMinAge(int blockIndex) {
+			return blockInfos[blockIndex].minAge;
+		}
+
+		public int getBlockMaxAge(int blockIndex) {
+			return blockInfos[blockIndex].maxAge;
+		}
+
+		/**
+		 * Maps the specified block - the block index knows its length, so it is mapped with a single call.
+		 *
+		 * @param blockIndex the index of the block
+		 * @return the {@link Block}
+		 */
+		public Block getBlock(int blockIndex) {
+			BlockInfo blockInfo = blockInfos[blockIndex];
+			try {
+				return new Block(this, blockInfo, map(blockInfo.offset, blockInfo.byteLength));
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		/**
+		 * Returns the age column of all blocks.
+		 *
+		 * @return the stream of ages
+		 */
+		public IntStream ages() {
+			return IntStream.range(0, blockInfos.length)
+				.flatMap(blockIndex -> getBlock(blockIndex).ages());
+		}
+
+		/**
+		 * Returns all persons - creates a {@link HelloStreams.Person} for every row.
+		 *
+		 * @return the stream of persons
+		 */
+		public Stream<HelloStreams.Person> persons() {
+			return personsWithAge(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Returns the persons with an age in the specified range.
+		 *
+		 * Blocks that can not contain a matching age according to their min/max statistics are skipped without mapping them.
+		 * Only the matching rows are materialized into {@link HelloStreams.Person}s.
+		 *
+		 * @param minAge the minimum age (inclusive)
+		 * @param maxAge the maximum age (inclusive)
+		 * @return the stream of matching persons
+		 */
+		public Stream<HelloStreams.Person> personsWithAge(int minAge, int maxAge) {
+			return IntStream.range(0, blockInfos.length)
+				.filter(blockIndex -> blockInfos[blockIndex].maxAge >= minAge && blockInfos[blockIndex].minAge <= maxAge)
+				.mapToObj(this::getBlock)
+				.flatMap(block -> IntStream.range(0, block.getRowCount())
+						.filter(row -> {
+							int age = block.getAge(row);
+							return age >= minAge && age <= maxAge;
+						})
+						.mapToObj(block::getPerson));
+		}
+
+		/**
+		 * Counts the persons with an age in the specified range, using only the age column.
+		 *
+		 * @param minAge the minimum age (inclusive)
+		 * @param maxAge the maximum age (inclusive)
+		 * @return the number of matching persons
+		 */
+		public long countWithAge(int minAge, int maxAge) {
+			return IntStream.range(0, blockInfos.length)
+				.parallel()
+				.filter(blockIndex -> blockInfos[blockIndex].maxAge >= minAge && blockInfos[blockIndex].minAge <= maxAge)
+				.mapToLong(blockIndex -> {
+					BlockInfo blockInfo = blockInfos[blockIndex];
+					if (blockInfo.minAge >= minAge && blockInfo.maxAge <= maxAge) {
+						return blockInfo.rowCount; // all rows match - no need to map the block
+					}
+					return getBlock(blockIndex).ages().filter(age -> age >= minAge && age <= maxAge).count();
+				})
+				.sum();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		private ByteBuffer map(long position, long size) throws IOException {
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		}
+	}
+
+	/**
+	 * A memory mapped dictionary - the values are decoded from the mapped bytes when they are accessed.
+	 *
+	 * Only absolute reads are used on the shared buffer, so it can be used by multiple threads.
+	 */
+	private static class Dictionary {
+		private final ByteBuffer buffer;
+		private final int size;
+		private final int bytesStart;
+		private final String[] cache;
+
+		/**
+		 * @param buffer the mapped dictionary
+		 * @param cached whether decoded values are kept - only useful for dictionaries with few values that are accessed repeatedly
+		 */
+		public Dictionary(ByteBuffer buffer, boolean cached) {
+			this.buffer = buffer;
+			this.size = buffer.getInt(0);
+			this.bytesStart = 4 + (size + 1) * 4;
+			this.cache = cached ? new String[size] : null;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public String get(int id) {
+			if (id < 0 || id >= size) {
+				throw new IndexOutOfBoundsException("Dictionary id " + id + " not in 0 - " + size);
+			}
+			if (cache != null) {
+				String value = cache[id];
+				if (value == null) {
+					value = decode(id);
+					cache[id] = value; // race is harmless - Strings are immutable
+				}
+				return value;
+			}
+			return decode(id);
+		}
+
+		private String decode(int id) {
+			int start = buffer.getInt(4 + id * 4);
+			int end = buffer.getInt(4 + (id + 1) * 4);
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(bytesStart + start + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * A memory mapped block of rows.
+	 */
+	public static class Block {
+		private final Reader reader;
+		private final int rowCount;
+		private final int minAge;
+		private final int maxAge;
+		private final IntBuffer ages;
+		private final IntBuffer nameIds;
+		private final IntBuffer hobbyOffsets;
+		private final IntBuffer hobbyIds;
+
+		private Block(Reader reader, BlockInfo blockInfo, ByteBuffer buffer) {
+			this.reader = reader;
+			this.rowCount = blockInfo.rowCount;
+			this.minAge = blockInfo.minAge;
+			this.maxAge = blockInfo.maxAge;
+
+			IntBuffer ints = buffer.asIntBuffer();
+			ages = slice(ints, 1, rowCount);
+			nameIds = slice(ints, 1 + rowCount, rowCount);
+			hobbyOffsets = slice(ints, 1 + 2 * rowCount, rowCount + 1);
+			hobbyIds = slice(ints, 2 + 3 * rowCount, hobbyOffsets.get(rowCount));
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		public int getMinAge() {
+			return minAge;
+		}
+
+		public int getMaxAge() {
+			return maxAge;
+		}
+
+		public int getAge(int row) {
+			return ages.get(row);
+		}
+
+		public int getNameId(int row) {
+			return nameIds.get(row);
+		}
+
+		public String getName(int row) {
+			return reader.getName(nameIds.get(row));
+		}
+
+		public int getHobbyCount(int row) {
+			return hobbyOffsets.get(row + 1) - hobbyOffsets.get(row);
+		}
+
+		public int getHobbyId(int row, int hobbyIndex) {
+			return hobbyIds.get(hobbyOffsets.get(row) + hobbyIndex);
+		}
+
+		public IntStream ages() {
+			return IntStream.range(0, rowCount).map(ages::get);
+		}
+
+		/**
+		 * Materializes the specified row into a {@link HelloStreams.Person}.
+		 *
+		 * @param row the row in this block
+		 * @return the {@link HelloStreams.Person}
+		 */
+		public HelloStreams.Person getPerson(int row) {
+			int hobbyStart = hobbyOffsets.get(row);
+			String[] personHobbies = new String[hobbyOffsets.get(row + 1) - hobbyStart];
+			for (int i = 0; i < personHobbies.length; i++) {
+				personHobbies[i] = reader.getHobby(hobbyIds.get(hobbyStart + i));
+			}
+			return new HelloStreams.Person(getName(row), ages.get(row), Arrays.asList(personHobbies));
+		}
+
+		private static IntBuffer slice(IntBuffer buffer, int position, int length) {
+			IntBuffer duplicate = buffer.duplicate();
+			duplicate.position(position);
+			duplicate.limit(position + length);
+			return duplicate.slice();
+		}
+	}
+}
@@ -0,0 +1,351 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads {@link HelloStreams.Person}s from a memory mapped CSV or TSV file.
+ *
+ * Every line contains one person: <code>name,age,hobby1;hobby2;hobby3</code> (with a tab instead of the comma for TSV).
+ *
+ * The returned streams split the file on line boundaries, so <code>parallel()</code> pipelines parse the file with all cores
+ * instead of being bound to a single {@link java.io.BufferedReader}.
+ * The file is mapped in windows of at most {@value #WINDOW_SIZE} bytes, so files larger than 2 GB are supported.
+ *
+ * <pre>
+ * try (Stream&lt;Person&gt; persons = PersonFileReader.persons(path, PersonFileReader.CSV)) {
+ *     persons.parallel()
+ *         .filter(person -&gt; person.age == 25)
+ *         .forEach(System.out::println);
+ * }
+ * </pre>
+ */
+public class PersonFileReader {
+
+	public static final char CSV = ',';
+	public static final char TSV = '\t';
+
+	private static final char HOBBY_SEPARATOR = ';';
+
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+	private static final int MIN_SPLIT_SIZE = 1024 * 1024;
+	private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Returns a stream of all persons in the specified file.
+	 *
+	 * The stream must be closed to close the file.
+	 *
+	 * @param path the path to the file
+	 * @param separator the field separator, {@link #CSV} or {@link #TSV}
+	 * @return the stream of {@link HelloStreams.Person}s
+	 * @throws IOException if the file could not be opened
+	 */
+	public static Stream<HelloStreams.Person> persons(Path path, char separator) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		return StreamSupport.stream(new PersonSpliterator(channel, 0, channel.size(), (byte) separator), false)
+				.onClose(() -> close(channel));
+	}
+
+	/**
+	 * Returns a stream of the ages of all persons in the specified file.
+	 *
+	 * Only the age column is parsed, without creating any objects per line.
+	 * The stream must be closed to close the file.
+	 *
+	 * @param path the path to the file
+	 * @param separator the field separator, {@link #CSV} or {@link #TSV}
+	 * @return the stream of ages
+	 * @throws IOException if the file could not be opened
+	 */
+	public static IntStream ages(Path path, char separator) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		return StreamSupport.intStream(new AgeSpliterator(channel, 0, channel.size(), (byte) separator), false)
+				.onClose(() -> close(channel));
+	}
+
+	private static void close(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Parses a non-negative int directly from the bytes of a line.
+	 *
+	 * @param bufferPosition the file position of the start of the buffer, used in the error messages
+	 * @throws NumberFormatException if the field is empty, contains a non-digit or does not fit into an int
+	 */
+	private static int parseInt(ByteBuffer buffer, int start, int end, long bufferPosition) {
+		if (start == end) {
+			throw new NumberFormatException("Empty number at position " + (bufferPosition + start));
+		}
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Not a digit at position " + (bufferPosition + i) + ": " + (char) buffer.get(i));
+			}
+			if (value > (Integer.MAX_VALUE - digit) / 10) {
+				throw new NumberFormatException("Number too large at position " + (bufferPosition + start) + ": " + parseString(buffer, start, end));
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static String parseString(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int indexOf(ByteBuffer buffer, int start, int end, byte value) {
+		for (int i = start; i < end; i++) {
+			if (buffer.get(i) == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Splits a region of the file on line boundaries and iterates over the lines in mapped windows.
+	 */
+	private static abstract class LineSpliterator {
+		protected final FileChannel channel;
+		protected final byte separator;
+
+		/** file position of the next line to read */
+		private long position;
+		/** file position after the last byte of this region */
+		private long end;
+
+		private MappedByteBuffer window;
+		private long windowPosition;
+		private int windowLimit;
+
+		protected int lineStart;
+		protected int lineEnd;
+
+		protected LineSpliterator(FileChannel channel, long position, long end, byte separator) {
+			this.channel = channel;
+			this.position = position;
+			this.end = end;
+			this.separator = separator;
+		}
+
+		protected abstract LineSpliterator createSplit(long position, long end);
+
+		/**
+		 * Advances to the next non-empty line.
+		 *
+		 * @return <code>true</code> if a line was found, its bytes are in {@link #window} from {@link #lineStart} to {@link #lineEnd}
+		 */
+		protected boolean nextLine() {
+			while (position < end) {
+				if (window == null || position >= windowPosition + windowLimit) {
+					mapWindow();
+				}
+
+				int start = (int) (position - windowPosition);
+				int newline = indexOf(window, start, windowLimit, (byte) '\n');
+				int endOfLine = newline >= 0 ? newline : windowLimit;
+				position = windowPosition + endOfLine + 1;
+
+				if (endOfLine > start && window.get(endOfLine - 1) == '\r') {
+					endOfLine--;
+				}
+				if (endOfLine > start) {
+					lineStart = start;
+					lineEnd = endOfLine;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		protected ByteBuffer window() {
+			return window;
+		}
+
+		protected int parseInt(int start, int end) {
+			return PersonFileReader.parseInt(window, start, end, windowPosition);
+		}
+
+		private void mapWindow() {
+			try {
+				long size = Math.min(WINDOW_SIZE, end - position);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+				int limit = (int) size;
+				if (position + size < end) {
+					// window ends in the middle of the region - cut it after the last complete line
+					int lastNewline = limit - 1;
+					while (lastNewline >= 0 && buffer.get(lastNewline) != '\n') {
+						lastNewline--;
+					}
+					if (lastNewline < 0) {
+						throw new IllegalStateException("Line longer than " + WINDOW_SIZE + " bytes at position " + position);
+					}
+					limit = lastNewline + 1;
+				}
+				window = buffer;
+				windowPosition = position;
+				windowLimit = limit;
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		protected LineSpliterator splitRegion() {
+			long remaining = end - position;
+			if (remaining < 2 * MIN_SPLIT_SIZE) {
+				return null;
+			}
+
+			long splitPosition = findLineStart(position + remaining / 2);
+			if (splitPosition >= end) {
+				return null;
+			}
+
+			LineSpliterator prefix = createSplit(position, splitPosition);
+			position = splitPosition;
+			window = null;
+			return prefix;
+		}
+
+		private long findLineStart(long searchPosition) {
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+				while (searchPosition < end) {
+					buffer.clear();
+					int count = channel.read(buffer, searchPosition);
+					if (count <= 0) {
+						return end;
+					}
+					int newline = indexOf(buffer, 0, count, (byte) '\n');
+					if (newline >= 0) {
+						return searchPosition + newline + 1;
+					}
+					searchPosition += count;
+				}
+				return end;
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		public long estimateSize() {
+			return end - position;
+		}
+
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		}
+	}
+
+	private static class PersonSpliterator extends LineSpliterator implements Spliterator<HelloStreams.Person> {
+
+		public PersonSpliterator(FileChannel channel, long position, long end, byte separator) {
+			super(channel, position, end, separator);
+		}
+
+		@Override
+		protected LineSpliterator createSplit(long position, long end) {
+			return new PersonSpliterator(channel, position, end, separator);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super HelloStreams.Person> action) {
+			if (!nextLine()) {
+				return false;
+			}
+			action.accept(parsePerson(window(), lineStart, lineEnd));
+			return true;
+		}
+
+		@Override
+		public Spliterator<HelloStreams.Person> trySplit() {
+			return (PersonSpliterator) splitRegion();
+		}
+
+		private HelloStreams.Person parsePerson(ByteBuffer buffer, int start, int end) {
+			int nameEnd = indexOf(buffer, start, end, separator);
+			if (nameEnd < 0) {
+				throw new IllegalArgumentException("Missing age in line: " + parseString(buffer, start, end));
+			}
+			int ageEnd = indexOf(buffer, nameEnd + 1, end, separator);
+			if (ageEnd < 0) {
+				ageEnd = end;
+			}
+
+			String name = parseString(buffer, start, nameEnd);
+			int age = parseInt(nameEnd + 1, ageEnd);
+
+			List<String> hobbies = new ArrayList<>();
+			int hobbyStart = ageEnd + 1;
+			while (hobbyStart < end) {
+				int hobbyEnd = indexOf(buffer, hobbyStart, end, (byte) HOBBY_SEPARATOR);
+				if (hobbyEnd < 0) {
+					hobbyEnd = end;
+				}
+				if (hobbyEnd > hobbyStart) {
+					hobbies.add(parseString(buffer, hobbyStart, hobbyEnd));
+				}
+				hobbyStart = hobbyEnd + 1;
+			}
+
+			return new HelloStreams.Person(name, age, Collections.unmodifiableList(hobbies));
+		}
+	}
+
+	private static class AgeSpliterator extends LineSpliterator implements Spliterator.OfInt {
+
+		public AgeSpliterator(FileChannel channel, long position, long end, byte separator) {
+			super(channel, position, end, separator);
+		}
+
+		@Override
+		protected LineSpliterator createSplit(long position, long end) {
+			return new AgeSpliterator(channel, position, end, separator);
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			if (!nextLine()) {
+				return false;
+			}
+
+			ByteBuffer buffer = window();
+			int ageStart = indexOf(buffer, lineStart, lineEnd, separator) + 1;
+			if (ageStart == 0) {
+				throw new IllegalArgumentException("Missing age in line: " + parseString(buffer, lineStart, lineEnd));
+			}
+			int ageEnd = indexOf(buffer, ageStart, lineEnd, separator);
+			action.accept(parseInt(ageStart, ageEnd < 0 ? lineEnd : ageEnd));
+			return true;
+		}
+
+		@Override
+		public Spliterator.OfInt trySplit() {
+			return (AgeSpliterator) splitRegion();
+		}
+	}
+}
@@ -0,0 +1,358 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Low overhead instrumentation of the stages of a stream pipeline - a replacement for <code>peek(System.out::println)</code>.
+ *
+ * Every stage counts the elements going in and out (using {@link LongAdder}, so it is safe and cheap under <code>parallel()</code>).
+ * Only a sample of the elements is timed and measured for allocation, so the cost is close to nothing with sampling turned off.
+ *
+ * <pre>
+ * PipelineInstrumentation instrumentation = new PipelineInstrumentation(0.01);
+ * PERSONS.stream()
+ *     .filter(instrumentation.filter("age", person -&gt; person.age == 25))
+ *     .flatMap(instrumentation.flatMap("hobbies", person -&gt; person.hobbies.stream()))
+ *     .collect(Collectors.toList());
+ * System.out.println(instrumentation);
+ * </pre>
+ */
+public class PipelineInstrumentation {
+
+	private final double sampleRate;
+	private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a {@link PipelineInstrumentation}.
+	 *
+	 * @param sampleRate the fraction (0.0 - 1.0) of elements that are timed and measured for allocation, 0.0 only counts elements
+	 */
+	public PipelineInstrumentation(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Returns the {@link Stage} with the specified name, creating it if necessary.
+	 *
+	 * @param name the name of the stage
+	 * @return the {@link Stage}
+	 */
+	public Stage stage(String name) {
+		return stages.computeIfAbsent(name, key -> new Stage(key, sampleRate));
+	}
+
+	/**
+	 * Wraps a filter predicate - counts the elements that are tested and accepted.
+	 *
+	 * @param name the name of the stage
+	 * @param predicate the predicate to instrument
+	 * @return the instrumented predicate
+	 */
+	public <T> Predicate<T> filter(String name, Predicate<T> predicate) {
+		Stage stage = stage(name);
+		return element -> {
+			stage.in.increment();
+			boolean result;
+			if (stage.sample()) {
+				long startAllocatedBytes = allocatedBytes();
+				long startNanos = System.nanoTime();
+				result = predicate.test(element);
+				stage.record(System.nanoTime() - startNanos, allocatedBytes() - startAllocatedBytes);
+			} else {
+				result = predicate.test(element);
+			}
+			if (result) {
+				stage.out.increment();
+			}
+			return result;
+		};
+	}
+
+	/**
+	 * Wraps a mapping function for <code>map()</code> - counts the elements that are mapped.
+	 *
+	 * @param name the name of the stage
+	 * @param function the function to instrument
+	 * @return the instrumented function
+	 */
+	public <T, R> Function<T, R> map(String name, Function<T, R> function) {
+		Stage stage = stage(name);
+		return element -> {
+			stage.in.increment();
+			stage.out.increment();
+			if (!stage.sample()) {
+				return function.apply(element);
+			}
+
+			long startAllocatedBytes = allocatedBytes();
+			long startNanos = System.nanoTime();
+			R result = function.apply(element);
+			stage.record(System.nanoTime() - startNanos, allocatedBytes() - startAllocatedBytes);
+			return result;
+		};
+	}
+
+	/**
+	 * Wraps a mapping function for <code>flatMap()</code> - counts the elements going in and the elements of the returned streams coming out.
+	 *
+	 * The sampled time and allocation only cover the function creating the inner stream.
+	 * The inner stream is consumed lazily by the downstream stages, so its elements are counted but not timed.
+	 *
+	 * @param name the name of the stage
+	 * @param function the function to instrument
+	 * @return the instrumented function
+	 */
+	public <T, R> Function<T, Stream<R>> flatMap(String name, Function<T, Stream<R>> function) {
+		Stage stage = stage(name);
+		return element -> {
+			stage.in.increment();
+			Stream<R> result;
+			if (stage.sample()) {
+				long startAllocatedBytes = allocatedBytes();
+				long startNanos = System.nanoTime();
+				result = function.apply(element);
+				stage.record(System.nanoTime() - startNanos, allocatedBytes() - startAllocatedBytes);
+			} else {
+				result = function.apply(element);
+			}
+			return result == null ? null : result.peek(mapped -> stage.out.increment());
+		};
+	}
+
+	/**
+	 * Returns a consumer for <code>peek()</code> that only counts the elements passing by.
+	 *
+	 * @param name the name of the stage
+	 * @return the counting consumer
+	 */
+	public <T> Consumer<T> count(String name) {
+		Stage stage = stage(name);
+		return element -> {
+			stage.in.increment();
+			stage.out.increment();
+		};
+	}
+
+	/**
+	 * Returns all stages in the order they were created.
+	 *
+	 * @return the list of {@link Stage}s
+	 */
+	public List<Stage> getStages() {
+		List<Stage> result = new ArrayList<>(stages.values());
+		result.sort((stage1, stage2) -> Long.compare(stage1.creationIndex, stage2.creationIndex));
+		return result;
+	}
+
+	/**
+	 * Resets the counters of all stages.
+	 */
+	public void reset() {
+		stages.values().forEach(Stage::reset);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Stage stage : getStages()) {
+			result.append(stage).append(System.lineSeparator());
+		}
+		return result.toString();
+	}
+
+	private static long allocatedBytes() {
+		return AllocationCounter.currentThreadAllocatedBytes();
+	}
+
+	/**
+	 * The counters of a single stage.
+	 */
+	public static class Stage {
+		private static final AtomicLong creationCounter = new AtomicLong();
+
+		private final String name;
+		private final double sampleRate;
+		private final long creationIndex;
+
+		private final LongAdder in = new LongAdder();
+		private final LongAdder out = new LongAdder();
+		private final LongAdder sampledCount = new LongAdder();
+		private final LongAdder sampledNanos = new LongAdder();
+		private final LongAdder sampledAllocatedBytes = new LongAdder();
+		private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+		private Stage(String name, double sampleRate) {
+			this.creationIndex = creationCounter.incrementAndGet();
+			this.name = name;
+			this.sampleRate = sampleRate;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getInCount() {
+			return in.sum();
+		}
+
+		public long getOutCount() {
+			return out.sum();
+		}
+
+		/**
+		 * Returns the fraction of the elements that passed this stage.
+		 *
+		 * @return the selectivity (0.0 - 1.0 for filters, 1.0 for maps, the average number of elements per input for flatMaps)
+		 */
+		public double getSelectivity() {
+			long inCount = in.sum();
+			return inCount == 0 ? 1.0 : (double) out.sum() / inCount;
+		}
+
+		/**
+		 * Returns the estimated total time spent in this stage, extrapolated from the samples.
+		 *
+		 * @return the estimated time in nanoseconds
+		 */
+		public long getEstimatedNanos() {
+			long count = sampledCount.sum();
+			return count == 0 ? 0 : extrapolate(sampledNanos.sum(), count, in.sum());
+		}
+
+		/**
+		 * Returns the estimated total allocated bytes in this stage, extrapolated from the samples.
+		 *
+		 * @return the estimated allocated bytes, 0 if allocation can not be measured
+		 */
+		public long getEstimatedAllocatedBytes() {
+			long count = sampledCount.sum();
+			return count == 0 ? 0 : extrapolate(sampledAllocatedBytes.sum(), count, in.sum());
+		}
+
+		public LatencyHistogram getLatencyHistogram() {
+			return latencyHistogram;
+		}
+
+		private static long extrapolate(long sampledSum, long sampledCount, long totalCount) {
+			// in double - sampledSum * totalCount overflows long for large streams
+			return (long) ((double) sampledSum / sampledCount * totalCount);
+		}
+
+		private boolean sample() {
+			return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+		}
+
+		private void record(long nanos, long allocatedBytes) {
+			sampledCount.increment();
+			sampledNanos.add(nanos);
+			sampledAllocatedBytes.add(allocatedBytes);
+			latencyHistogram.record(nanos);
+		}
+
+		private void reset() {
+			in.reset();
+			out.reset();
+			sampledCount.reset();
+			sampledNanos.reset();
+			sampledAllocatedBytes.reset();
+			latencyHistogram.reset();
+		}
+
+		@Override
+		public String toString() {
+			return "Stage [name=" + name + ", in=" + in.sum() + ", out=" + out.sum() + ", selectivity=" + getSelectivity()
+					+ ", samples=" + sampledCount.sum() + ", estimatedNanos=" + getEstimatedNanos() + ", estimatedAllocatedBytes=" + getEstimatedAllocatedBytes()
+					+ ", p50=" + latencyHistogram.getValueAtPercentile(50) + "ns, p99=" + latencyHistogram.getValueAtPercentile(99) + "ns]";
+		}
+	}
+
+	/**
+	 * Histogram of latencies with buckets of constant relative precision (similar to HdrHistogram).
+	 *
+	 * Every power of 2 is split into {@value #SUB_BUCKET_COUNT} linear sub buckets, so the relative error is below 1/{@value #SUB_BUCKET_COUNT}.
+	 */
+	public static class LatencyHistogram {
+		private static final int SUB_BUCKET_BITS = 4;
+		private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+		private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT);
+
+		/**
+		 * Records a value.
+		 *
+		 * @param value the value to record (negative values are recorded as 0)
+		 */
+		public void record(long value) {
+			counts.incrementAndGet(bucketIndex(Math.max(0, value)));
+		}
+
+		/**
+		 * Returns the total number of recorded values.
+		 *
+		 * @return the count
+		 */
+		public long getCount() {
+			long count = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				count += counts.get(i);
+			}
+			return count;
+		}
+
+		/**
+		 * Returns the value at the specified percentile.
+		 *
+		 * @param percentile the percentile (0.0 - 100.0)
+		 * @return the upper bound of the bucket containing the percentile, 0 if nothing was recorded
+		 */
+		public long getValueAtPercentile(double percentile) {
+			long totalCount = getCount();
+			if (totalCount == 0) {
+				return 0;
+			}
+
+			long targetCount = Math.max(1, (long) Math.ceil(totalCount * percentile / 100.0));
+			long count = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				count += counts.get(i);
+				if (count >= targetCount) {
+					return bucketUpperBound(i);
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		private void reset() {
+			for (int i = 0; i < counts.length(); i++) {
+				counts.set(i, 0);
+			}
+		}
+
+		private static int bucketIndex(long value) {
+			if (value < SUB_BUCKET_COUNT) {
+				return (int) value;
+			}
+			int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+			int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+			return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+		}
+
+		private static long bucketUpperBound(int index) {
+			if (index < SUB_BUCKET_COUNT) {
+				return index;
+			}
+			int shift = index / SUB_BUCKET_COUNT - 1;
+			long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+			return ((subBucket + 1) << shift) - 1;
+		}
+	}
+}
@@ -0,0 +1,458 @@
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Allocation free optional results for hot lookups.
+ *
+ * {@link Optional}, {@link OptionalInt} ... are objects - every <code>map()</code> and <code>filter()</code> in a chain allocates a new one.
+ * The results in this class are encoded into a primitive <code>long</code> (or a nullable reference),
+ * so they live in registers and never allocate:
+ * <ul>
+ * <li>{@link IntResult} - an optional <code>int</code>, the presence is encoded in the upper 32 bits</li>
+ * <li>{@link LongResult} - an optional <code>long</code>, {@link Long#MIN_VALUE} is the empty sentinel</li>
+ * <li>{@link DoubleResult} - an optional <code>double</code>, a NaN bit pattern that is never produced by arithmetic is the empty sentinel</li>
+ * <li>{@link RefResult} - an optional reference, <code>null</code> is the empty sentinel</li>
+ * </ul>
+ *
+ * <pre>
+ * long length = IntResult.of(str.length());
+ * int result = IntResult.orElse(IntResult.filter(IntResult.map(length, x -&gt; x * 2), x -&gt; x &gt; 4), -1);
+ * </pre>
+ *
+ * The stream terminal operations {@link #minInt(Stream, ToIntFunction)}, {@link #maxInt(Stream, ToIntFunction)} ...
+ * reduce into encoded results and do not allocate per element.
+ */
+public class PrimitiveResults {
+
+	/**
+	 * Returns the minimum of an int property of the elements.
+	 *
+	 * @param stream the stream of elements
+	 * @param mapper maps an element to the value
+	 * @return the encoded {@link IntResult}, empty if the stream is empty
+	 */
+	public static <T> long minInt(Stream<T> stream, ToIntFunction<? super T> mapper) {
+		return stream
+			.mapToLong(element -> IntResult.of(mapper.applyAsInt(element)))
+			.reduce(IntResult.EMPTY, IntResult::min);
+	}
+
+	/**
+	 * Returns the maximum of an int property of the elements.
+	 *
+	 * @param stream the stream of elements
+	 * @param mapper maps an element to the value
+	 * @return the encoded {@link IntResult}, empty if the stream is empty
+	 */
+	public static <T> long maxInt(Stream<T> stream, ToIntFunction<? super T> mapper) {
+		return stream
+			.mapToLong(element -> IntResult.of(mapper.applyAsInt(element)))
+			.reduce(IntResult.EMPTY, IntResult::max);
+	}
+
+	/**
+	 * Returns an int property of any element.
+	 *
+	 * @param stream the stream of elements
+	 * @param mapper maps an element to the value
+	 * @return the encoded {@link IntResult}, empty if the stream is empty
+	 */
+	public static <T> long findAnyInt(Stream<T> stream, ToIntFunction<? super T> mapper) {
+		return stream
+			.unordered()
+			.limit(1)
+			.mapToLong(element -> IntResult.of(mapper.applyAsInt(element)))
+			.reduce(IntResult.EMPTY, (result1, result2) -> IntResult.isPresent(result1) ? result1 : result2);
+	}
+
+	/**
+	 * Returns the minimum of a long property of the elements.
+	 *
+	 * @param stream the stream of elements
+	 * @param mapper maps an element to the value (must not return {@link Long#MIN_VALUE})
+	 * @return the encoded {@link LongResult}, empty if the stream is empty
+	 */
+	public static <T> long minLong(Stream<T> stream, ToLongFunction<? super T> mapper) {
+		return stream
+			.mapToLong(element -> LongResult.of(mapper.applyAsLong(element)))
+			.reduce(LongResult.EMPTY, LongResult::min);
+	}
+
+	/**
+	 * Returns the maximum of a long property of the elements.
+	 *
+	 * @param stream the stream of elements
+	 * @param mapper maps an element to the value (must not return {@link Long#MIN_VALUE})
+	 * @return the encoded {@link LongResult}, empty if the stream is empty
+	 */
+	public static <T> long maxLong(Stream<T> stream, ToLongFunction<? super T> mapper) {
+		return stream
+			.mapToLong(element -> LongResult.of(mapper.applyAsLong(element)))
+			.reduce(LongResult.EMPTY, LongResult::max);
+	}
+
+	/**
+	 * Returns the minimum of a double property of the elements.
+	 *
+	 * @param stream the stream of elements
+	 * @param mapper maps an element to the value
+	 * @return the encoded {@link DoubleResult}, empty if the stream is empty
+	 */
+	public static <T> long minDouble(Stream<T> stream, ToDoubleFunction<? super T> mapper) {
+		return stream
+			.mapToLong(element -> DoubleResult.of(mapper.applyAsDouble(element)))
+			.reduce(DoubleResult.EMPTY, DoubleResult::min);
+	}
+
+	/**
+	 * Returns the maximum of a double property of the elements.
+	 *
+	 * @param stream the stream of elements
+	 * @param mapper maps an element to the value
+	 * @return the encoded {@link DoubleResult}, empty if the stream is empty
+	 */
+	public static <T> long maxDouble(Stream<T> stream, ToDoubleFunction<? super T> mapper) {
+		return stream
+			.mapToLong(element -> DoubleResult.of(mapper.applyAsDouble(element)))
+			.reduce(DoubleResult.EMPTY, DoubleResult::max);
+	}
+
+	/**
+	 * Returns the element with the maximum of an int property - similar to <code>Stream.max()</code> but without {@link Optional}.
+	 *
+	 * @param stream the stream of non-null elements
+	 * @param mapper maps an element to the value
+	 * @return the {@link RefResult} (the first element with the maximum value), <code>null</code> if the stream is empty
+	 */
+	public static <T> T maxBy(Stream<T> stream, ToIntFunction<? super T> mapper) {
+		return stream.reduce(null, (element1, element2) -> {
+			if (element1 == null) {
+				return element2;
+			}
+			if (element2 == null) {
+				return element1;
+			}
+			return mapper.applyAsInt(element2) > mapper.applyAsInt(element1) ? element2 : element1;
+		});
+	}
+
+	/**
+	 * Returns the element with the minimum of an int property - similar to <code>Stream.min()</code> but without {@link Optional}.
+	 *
+	 * @param stream the stream of non-null elements
+	 * @param mapper maps an element to the value
+	 * @return the {@link RefResult} (the first element with the minimum value), <code>null</code> if the stream is empty
+	 */
+	public static <T> T minBy(Stream<T> stream, ToIntFunction<? super T> mapper) {
+		return stream.reduce(null, (element1, element2) -> {
+			if (element1 == null) {
+				return element2;
+			}
+			if (element2 == null) {
+				return element1;
+			}
+			return mapper.applyAsInt(element2) < mapper.applyAsInt(element1) ? element2 : element1;
+		});
+	}
+
+	/**
+	 * Optional <code>int</code> encoded in a <code>long</code>.
+	 *
+	 * The lower 32 bits contain the value, the upper 32 bits are 1 if the value is present and 0 if empty.
+	 */
+	public static class IntResult {
+		public static final long EMPTY = 0L;
+
+		private static final long PRESENT = 1L << 32;
+
+		public static long of(int value) {
+			return PRESENT | (value & 0xFFFFFFFFL);
+		}
+
+		public static long ofOptional(OptionalInt optional) {
+			return optional.isPresent() ? of(optional.getAsInt()) : EMPTY;
+		}
+
+		public static boolean isPresent(long result) {
+			return result != EMPTY;
+		}
+
+		public static int get(long result) {
+			if (result == EMPTY) {
+				throw new NoSuchElementException("No value present");
+			}
+			return (int) result;
+		}
+
+		public static int orElse(long result, int other) {
+			return result == EMPTY ? other : (int) result;
+		}
+
+		public static long map(long result, IntUnaryOperator mapper) {
+			return result == EMPTY ? EMPTY : of(mapper.applyAsInt((int) result));
+		}
+
+		public static long filter(long result, IntPredicate predicate) {
+			return result == EMPTY || predicate.test((int) result) ? result : EMPTY;
+		}
+
+		/**
+		 * Fused <code>map()</code>, <code>filter()</code> and <code>orElse()</code>.
+		 */
+		public static int mapFilterOrElse(long result, IntUnaryOperator mapper, IntPredicate predicate, int other) {
+			if (result == EMPTY) {
+				return other;
+			}
+			int value = mapper.applyAsInt((int) result);
+			return predicate.test(value) ? value : other;
+		}
+
+		public static long min(long result1, long result2) {
+			if (result1 == EMPTY) {
+				return result2;
+			}
+			if (result2 == EMPTY) {
+				return result1;
+			}
+			return (int) result2 < (int) result1 ? result2 : result1;
+		}
+
+		public static long max(long result1, long result2) {
+			if (result1 == EMPTY) {
+				return result2;
+			}
+			if (result2 == EMPTY) {
+				return result1;
+			}
+			return (int) result2 > (int) result1 ? result2 : result1;
+		}
+
+		public static OptionalInt toOptional(long result) {
+			return result == EMPTY ? OptionalInt.empty() : OptionalInt.of((int) result);
+		}
+
+		public static String toString(long result) {
+			return result == EMPTY ? "IntResult.empty" : "IntResult[" + (int) result + "]";
+		}
+	}
+
+	/**
+	 * Optional <code>long</code> with {@link Long#MIN_VALUE} as empty sentinel.
+	 *
+	 * {@link Long#MIN_VALUE} itself can not be represented as present value.
+	 */
+	public static class LongResult {
+		public static final long EMPTY = Long.MIN_VALUE;
+
+		/**
+		 * Returns a present result.
+		 *
+		 * @param value the value
+		 * @return the encoded result
+		 * @throws IllegalArgumentException if the value is {@link Long#MIN_VALUE}
+		 */
+		public static long of(long value) {
+			if (value == EMPTY) {
+				throw new IllegalArgumentException("Long.MIN_VALUE is reserved for the empty LongResult");
+			}
+			return value;
+		}
+
+		public static long ofOptional(OptionalLong optional) {
+			return optional.isPresent() ? of(optional.getAsLong()) : EMPTY;
+		}
+
+		public static boolean isPresent(long result) {
+			return result != EMPTY;
+		}
+
+		public static long get(long result) {
+			if (result == EMPTY) {
+				throw new NoSuchElementException("No value present");
+			}
+			return result;
+		}
+
+		public static long orElse(long result, long other) {
+			return result == EMPTY ? other : result;
+		}
+
+		public static long map(long result, LongUnaryOperator mapper) {
+			return result == EMPTY ? EMPTY : of(mapper.applyAsLong(result));
+		}
+
+		public static long filter(long result, LongPredicate predicate) {
+			return result == EMPTY || predicate.test(result) ? result : EMPTY;
+		}
+
+		/**
+		 * Fused <code>map()</code>, <code>filter()</code> and <code>orElse()</code>.
+		 */
+		public static long mapFilterOrElse(long result, LongUnaryOperator mapper, LongPredicate predicate, long other) {
+			if (result == EMPTY) {
+				return other;
+			}
+			long value = mapper.applyAsLong(result);
+			return predicate.test(value) ? value : other;
+		}
+
+		public static long min(long result1, long result2) {
+			if (result1 == EMPTY) {
+				return result2;
+			}
+			if (result2 == EMPTY) {
+				return result1;
+			}
+			return Math.min(result1, result2);
+		}
+
+		public static long max(long result1, long result2) {
+			// EMPTY is the smallest long - no special case needed
+			return Math.max(result1, result2);
+		}
+
+		public static OptionalLong toOptional(long result) {
+			return result == EMPTY ? OptionalLong.empty() : OptionalLong.of(result);
+		}
+
+		public static String toString(long result) {
+			return result == EMPTY ? "LongResult.empty" : "LongResult[" + result + "]";
+		}
+	}
+
+	/**
+	 * Optional <code>double</code> encoded as the bits of the double in a <code>long</code>.
+	 *
+	 * The empty sentinel is a NaN with a payload. Present NaN values are stored as the canonical NaN
+	 * ({@link Double#doubleToLongBits(double)}), so they never collide with the sentinel.
+	 */
+	public static class DoubleResult {
+		public static final long EMPTY = 0x7FF8_DEAD_0000_0001L;
+
+		public static long of(double value) {
+			return Double.doubleToLongBits(value);
+		}
+
+		public static long ofOptional(OptionalDouble optional) {
+			return optional.isPresent() ? of(optional.getAsDouble()) : EMPTY;
+		}
+
+		public static boolean isPresent(long result) {
+			return result != EMPTY;
+		}
+
+		public static double get(long result) {
+			if (result == EMPTY) {
+				throw new NoSuchElementException("No value present");
+			}
+			return Double.longBitsToDouble(result);
+		}
+
+		public static double orElse(long result, double other) {
+			return result == EMPTY ? other : Double.longBitsToDouble(result);
+		}
+
+		public static long map(long result, DoubleUnaryOperator mapper) {
+			return result == EMPTY ? EMPTY : of(mapper.applyAsDouble(Double.longBitsToDouble(result)));
+		}
+
+		public static long filter(long result, DoublePredicate predicate) {
+			return result == EMPTY || predicate.test(Double.longBitsToDouble(result)) ? result : EMPTY;
+		}
+
+		/**
+		 * Fused <code>map()</code>, <code>filter()</code> and <code>orElse()</code>.
+		 */
+		public static double mapFilterOrElse(long result, DoubleUnaryOperator mapper, DoublePredicate predicate, double other) {
+			if (result == EMPTY) {
+				return other;
+			}
+			double value = mapper.applyAsDouble(Double.longBitsToDouble(result));
+			return predicate.test(value) ? value : other;
+		}
+
+		public static long min(long result1, long result2) {
+			if (result1 == EMPTY) {
+				return result2;
+			}
+			if (result2 == EMPTY) {
+				return result1;
+			}
+			return of(Math.min(Double.longBitsToDouble(result1), Double.longBitsToDouble(result2)));
+		}
+
+		public static long max(long result1, long result2) {
+			if (result1 == EMPTY) {
+				return result2;
+			}
+			if (result2 == EMPTY) {
+				return result1;
+			}
+			return of(Math.max(Double.longBitsToDouble(result1), Double.longBitsToDouble(result2)));
+		}
+
+		public static OptionalDouble toOptional(long result) {
+			return result == EMPTY ? OptionalDouble.empty() : OptionalDouble.of(Double.longBitsToDouble(result));
+		}
+
+		public static String toString(long result) {
+			return result == EMPTY ? "DoubleResult.empty" : "DoubleResult[" + Double.longBitsToDouble(result) + "]";
+		}
+	}
+
+	/**
+	 * Optional reference with <code>null</code> as empty sentinel - same semantics as {@link Optional#ofNullable(Object)}.
+	 */
+	public static class RefResult {
+
+		public static boolean isPresent(Object result) {
+			return result != null;
+		}
+
+		public static <T> T get(T result) {
+			if (result == null) {
+				throw new NoSuchElementException("No value present");
+			}
+			return result;
+		}
+
+		public static <T> T orElse(T result, T other) {
+			return result == null ? other : result;
+		}
+
+		public static <T, R> R map(T result, Function<? super T, ? extends R> mapper) {
+			return result == null ? null : mapper.apply(result);
+		}
+
+		public static <T> T filter(T result, Predicate<? super T> predicate) {
+			return result == null || predicate.test(result) ? result : null;
+		}
+
+		public static <T> int mapToIntOrElse(T result, ToIntFunction<? super T> mapper, int other) {
+			return result == null ? other : mapper.applyAsInt(result);
+		}
+
+		public static <T> long mapToInt(T result, ToIntFunction<? super T> mapper) {
+			return result == null ? IntResult.EMPTY : IntResult.of(mapper.applyAsInt(result));
+		}
+
+		public static <T> Optional<T> toOptional(T result) {
+			return Optional.ofNullable(result);
+		}
+	}
+}
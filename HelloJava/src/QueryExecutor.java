@@ -0,0 +1,451 @@
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs stream pipelines in a named, bounded {@link ForkJoinPool} instead of the common pool.
+ *
+ * A parallel stream uses the {@link ForkJoinPool} of the thread that starts the terminal operation,
+ * so a pipeline submitted to this executor only competes with other queries of the same executor.
+ * Use one executor per tenant (or per workload) to isolate them from each other.
+ *
+ * A parallel stream always spreads over all threads of its pool.
+ * To limit the parallelism of a single query, {@link #submit(Function, long, TimeUnit, int)} runs it in a temporary pool
+ * with the specified number of threads, which is shut down when the query is done.
+ * These threads come in addition to the threads of the executor, so use the limit for large queries that should not take over all threads.
+ *
+ * Queries can be cancelled and can have a deadline.
+ * Both are cooperative: the pipeline has to call {@link QueryContext#checkpoint()} (for example in a <code>peek()</code>)
+ * because a running parallel stream can not be interrupted.
+ */
+public class QueryExecutor implements AutoCloseable {
+
+	private final String name;
+	private final ForkJoinPool pool;
+
+	private final LongAdder submittedCount = new LongAdder();
+	private final LongAdder completedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder cancelledCount = new LongAdder();
+	private final LongAdder blockingCount = new LongAdder();
+
+	private final AtomicInteger queryIndex = new AtomicInteger();
+	private final Set<ForkJoinPool> queryPools = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Creates a {@link QueryExecutor} with the specified name and parallelism.
+	 *
+	 * @param name the name of the executor, used as prefix for the worker thread names
+	 * @param parallelism the maximum number of threads working on queries
+	 */
+	public QueryExecutor(String name, int parallelism) {
+		this.name = name;
+
+		this.pool = createPool(name, parallelism);
+	}
+
+	private static ForkJoinPool createPool(String threadNamePrefix, int parallelism) {
+		AtomicInteger threadIndex = new AtomicInteger();
+		return new ForkJoinPool(
+				parallelism,
+				forkJoinPool -> {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+					thread.setName(threadNamePrefix + "-" + threadIndex.incrementAndGet());
+					return thread;
+				},
+				null,
+				false);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Submits a query without deadline.
+	 *
+	 * @param query the query to run
+	 * @return the {@link Query} to wait for the result or cancel it
+	 */
+	public <T> Query<T> submit(Supplier<T> query) {
+		return submit(context -> query.get(), 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Submits a query with a deadline.
+	 *
+	 * @param query the query to run, it should call {@link QueryContext#checkpoint()} regularly
+	 * @param timeout the maximum time the query may run, 0 for no deadline
+	 * @param unit the unit of the timeout
+	 * @return the {@link Query} to wait for the result or cancel it
+	 */
+	public <T> Query<T> submit(Function<QueryContext, T> query, long timeout, TimeUnit unit) {
+		return submit(query, timeout, unit, pool, null);
+	}
+
+	/**
+	 * Submits a query with a deadline and a limited parallelism.
+	 *
+	 * The query runs in a temporary pool with <code>maxParallelism</code> threads (named <code>name-q&lt;index&gt;-&lt;thread&gt;</code>),
+	 * so its parallel streams use at most this many threads.
+	 * If <code>maxParallelism</code> is not smaller than the parallelism of the executor the query runs in the executor.
+	 *
+	 * @param query the query to run, it should call {@link QueryContext#checkpoint()} regularly
+	 * @param timeout the maximum time the query may run, 0 for no deadline
+	 * @param unit the unit of the timeout
+	 * @param maxParallelism the maximum number of threads working on this query
+	 * @return the {@link Query} to wait for the result or cancel it
+	 */
+	public <T> Query<T> submit(Function<QueryContext, T> query, long timeout, TimeUnit unit, int maxParallelism) {
+		if (maxParallelism <= 0) {
+			throw new IllegalArgumentException("maxParallelism must be > 0: " + maxParallelism);
+		}
+		if (maxParallelism >= pool.getParallelism()) {
+			return submit(query, timeout, unit);
+		}
+		if (pool.isShutdown()) {
+			throw new IllegalStateException("QueryExecutor " + name + " is closed");
+		}
+
+		ForkJoinPool queryPool = createPool(name + "-q" + queryIndex.incrementAndGet(), maxParallelism);
+		queryPools.add(queryPool);
+		return submit(query, timeout, unit, queryPool, () -> {
+			queryPools.remove(queryPool);
+			queryPool.shutdown();
+		});
+	}
+
+	private <T> Query<T> submit(Function<QueryContext, T> query, long timeout, TimeUnit unit, ForkJoinPool targetPool, Runnable onDone) {
+		long deadlineNanos = timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : 0;
+		QueryContext context = new QueryContext(deadlineNanos);
+
+		submittedCount.increment();
+		ForkJoinTask<T> task = targetPool.submit(() -> {
+			try {
+				T result = query.apply(context);
+				if (context.isCancelled()) {
+					// the query did not call checkpoint() after the cancellation or deadline
+					context.checkpoint();
+				}
+				context.record(completedCount);
+				return result;
+			} catch (CancellationException ex) {
+				context.record(cancelledCount);
+				throw ex;
+			} catch (RuntimeException | Error ex) {
+				context.record(failedCount);
+				throw ex;
+			} finally {
+				if (onDone != null) {
+					onDone.run();
+				}
+			}
+		});
+		return new Query<>(task, context, cancelledCount, onDone);
+	}
+
+	/**
+	 * Runs a query and waits for the result.
+	 *
+	 * @param query the query to run, it should call {@link QueryContext#checkpoint()} regularly
+	 * @param timeout the maximum time the query may run, 0 for no deadline
+	 * @param unit the unit of the timeout
+	 * @return the result of the query
+	 * @throws CancellationException if the query was cancelled or did not finish before the deadline
+	 * @throws ExecutionException if the query failed (never with a {@link CancellationException} as cause)
+	 * @throws InterruptedException if the calling thread was interrupted while waiting
+	 */
+	public <T> T execute(Function<QueryContext, T> query, long timeout, TimeUnit unit) throws ExecutionException, InterruptedException {
+		Query<T> future = submit(query, timeout, unit);
+		if (timeout <= 0) {
+			return future.get();
+		}
+		try {
+			return future.get(timeout, unit);
+		} catch (TimeoutException ex) {
+			future.cancel();
+			throw new CancellationException("Query exceeded deadline of " + timeout + " " + unit);
+		}
+	}
+
+	/**
+	 * Runs a blocking stage (I/O, remote calls) of a pipeline.
+	 *
+	 * The pool is told that the worker thread blocks, so it can start a compensating thread
+	 * and the remaining parallelism stays available for the CPU bound stages.
+	 * Use it inside <code>map()</code>, for example: <code>.map(id -&gt; executor.blocking(() -&gt; load(id)))</code>.
+	 *
+	 * @param blockingCall the blocking call
+	 * @return the result of the blocking call
+	 */
+	public <T> T blocking(Supplier<T> blockingCall) {
+		blockingCount.increment();
+		BlockingCall<T> blocker = new BlockingCall<>(blockingCall);
+		try {
+			ForkJoinPool.managedBlock(blocker);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted in blocking call");
+		}
+		return blocker.result;
+	}
+
+	/**
+	 * Returns a snapshot of the metrics of this executor.
+	 *
+	 * @return the {@link Metrics}
+	 */
+	public Metrics getMetrics() {
+		return new Metrics(
+				pool.getParallelism(),
+				pool.getPoolSize(),
+				pool.getActiveThreadCount(),
+				pool.getRunningThreadCount(),
+				pool.getQueuedSubmissionCount(),
+				pool.getQueuedTaskCount(),
+				pool.getStealCount(),
+				submittedCount.sum(),
+				completedCount.sum(),
+				failedCount.sum(),
+				cancelledCount.sum(),
+				blockingCount.sum());
+	}
+
+	/**
+	 * Shuts down the pools and waits for running queries to finish.
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			for (ForkJoinPool queryPool : queryPools) {
+				queryPool.shutdown();
+				queryPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "QueryExecutor [name=" + name + ", " + getMetrics() + "]";
+	}
+
+	/**
+	 * Gives a running query access to its cancellation state.
+	 */
+	public static class QueryContext {
+		private final long deadlineNanos;
+		private volatile boolean cancelled;
+		private final AtomicBoolean recorded = new AtomicBoolean();
+
+		private QueryContext(long deadlineNanos) {
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		public boolean isCancelled() {
+			return cancelled || (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0);
+		}
+
+		/**
+		 * Throws a {@link CancellationException} if the query was cancelled or the deadline has passed.
+		 *
+		 * Cheap enough to be called for every element, for example: <code>.peek(person -&gt; context.checkpoint())</code>.
+		 */
+		public void checkpoint() {
+			if (isCancelled()) {
+				throw new CancellationException(cancelled ? "Query cancelled" : "Query exceeded deadline");
+			}
+		}
+
+		private void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * Counts the outcome of the query - only the first outcome is counted.
+		 */
+		private void record(LongAdder counter) {
+			if (recorded.compareAndSet(false, true)) {
+				counter.increment();
+			}
+		}
+	}
+
+	/**
+	 * A submitted query.
+	 *
+	 * @param <T> the type of the result
+	 */
+	public static class Query<T> {
+		private final ForkJoinTask<T> task;
+		private final QueryContext context;
+		private final LongAdder cancelledCount;
+		private final Runnable onCancel;
+
+		private Query(ForkJoinTask<T> task, QueryContext context, LongAdder cancelledCount, Runnable onCancel) {
+			this.task = task;
+			this.context = context;
+			this.cancelledCount = cancelledCount;
+			this.onCancel = onCancel;
+		}
+
+		/**
+		 * Waits for the result.
+		 *
+		 * @return the result
+		 * @throws CancellationException if the query was cancelled or did not finish before the deadline
+		 * @throws ExecutionException if the query failed (never with a {@link CancellationException} as cause)
+		 * @throws InterruptedException if the calling thread was interrupted while waiting
+		 */
+		public T get() throws InterruptedException, ExecutionException {
+			try {
+				return task.get();
+			} catch (ExecutionException ex) {
+				throw unwrapCancellation(ex);
+			}
+		}
+
+		/**
+		 * Waits at most the specified time for the result.
+		 *
+		 * @param timeout the maximum time to wait
+		 * @param unit the unit of the timeout
+		 * @return the result
+		 * @throws CancellationException if the query was cancelled or did not finish before the deadline
+		 * @throws ExecutionException if the query failed (never with a {@link CancellationException} as cause)
+		 * @throws InterruptedException if the calling thread was interrupted while waiting
+		 * @throws TimeoutException if the query did not finish in the specified time
+		 */
+		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			try {
+				return task.get(timeout, unit);
+			} catch (ExecutionException ex) {
+				throw unwrapCancellation(ex);
+			}
+		}
+
+		/**
+		 * A query that stops at a {@link QueryContext#checkpoint()} fails with a {@link CancellationException},
+		 * which the task reports wrapped - rethrow it the same way as a cancellation before the query started.
+		 */
+		private static ExecutionException unwrapCancellation(ExecutionException ex) {
+			if (ex.getCause() instanceof CancellationException) {
+				CancellationException cancellation = new CancellationException(ex.getCause().getMessage());
+				cancellation.initCause(ex.getCause());
+				throw cancellation;
+			}
+			return ex;
+		}
+
+		/**
+		 * Cancels the query.
+		 * A query that has not started yet will not run, a running query stops at the next {@link QueryContext#checkpoint()}.
+		 */
+		public void cancel() {
+			context.cancel();
+			if (task.cancel(false) && onCancel != null) {
+				onCancel.run(); // a query that has not started yet never runs its cleanup
+			}
+			// counted here because a query that has not started yet never runs, a finished query was already counted
+			context.record(cancelledCount);
+		}
+
+		public boolean isDone() {
+			return task.isDone();
+		}
+	}
+
+	/**
+	 * Snapshot of the metrics of a {@link QueryExecutor}.
+	 */
+	public static class Metrics {
+		public final int parallelism;
+		public final int poolSize;
+		public final int activeThreadCount;
+		public final int runningThreadCount;
+		public final int queuedSubmissionCount;
+		public final long queuedTaskCount;
+		public final long stealCount;
+		public final long submittedCount;
+		public final long completedCount;
+		public final long failedCount;
+		public final long cancelledCount;
+		public final long blockingCount;
+
+		public Metrics(int parallelism, int poolSize, int activeThreadCount, int runningThreadCount, int queuedSubmissionCount, long queuedTaskCount, long stealCount, long submittedCount, long completedCount, long failedCount, long cancelledCount, long blockingCount) {
+			this.parallelism = parallelism;
+			this.poolSize = poolSize;
+			this.activeThreadCount = activeThreadCount;
+			this.runningThreadCount = runningThreadCount;
+			this.queuedSubmissionCount = queuedSubmissionCount;
+			this.queuedTaskCount = queuedTaskCount;
+			this.stealCount = stealCount;
+			this.submittedCount = submittedCount;
+			this.completedCount = completedCount;
+			this.failedCount = failedCount;
+			this.cancelledCount = cancelledCount;
+			this.blockingCount = blockingCount;
+		}
+
+		/**
+		 * Returns the saturation of the pool.
+		 *
+		 * Values near 1.0 mean that all threads are busy, values above 1.0 mean that queries are waiting in the queue.
+		 *
+		 * @return the saturation
+		 */
+		public double getSaturation() {
+			return (double) (activeThreadCount + queuedSubmissionCount) / parallelism;
+		}
+
+		@Override
+		public String toString() {
+			return "Metrics [parallelism=" + parallelism + ", poolSize=" + poolSize + ", active=" + activeThreadCount + ", running=" + runningThreadCount
+					+ ", queuedSubmissions=" + queuedSubmissionCount + ", queuedTasks=" + queuedTaskCount + ", steals=" + stealCount
+					+ ", submitted=" + submittedCount + ", completed=" + completedCount + ", failed=" + failedCount + ", cancelled=" + cancelledCount
+					+ ", blocking=" + blockingCount + ", saturation=" + getSaturation() + "]";
+		}
+	}
+
+	private static class BlockingCall<T> implements ForkJoinPool.ManagedBlocker {
+		private final Supplier<T> call;
+		private T result;
+		private boolean done;
+
+		public BlockingCall(Supplier<T> call) {
+			this.call = call;
+		}
+
+		@Override
+		public boolean block() {
+			if (!done) {
+				result = call.get();
+				done = true;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return done;
+		}
+	}
+}